@@ -56,5 +56,7 @@ from (
                         (ST_Dump(ST_Boundary(geom))).path as path -- To identify the polygon
                   from geometries ) as pointlist ) as segments ) as max_angles ) as final
 
--- change to "isconvex = false" to keep the concave polygons
+-- change to "isconvex = false" to keep the concave polygons, or to
+-- "max_value is not null and ((isconvex = false and polygon_num = 0) or polygon_num = 1)"
+-- to keep multipolygons and polygons with holes with them, as scripts/step1-concaveness.sh does
 where isconvex = true and polygon_num = 0 and max_value is not null;
\ No newline at end of file
@@ -1,11 +1,16 @@
 -------------------------------------------------------------------------
 -- Original implementation by Matt published at
 -- https://gis.stackexchange.com/a/257485
--- Altered to calculate the axis-aligned grid with fixed granularity.
+-- Altered to calculate the axis-aligned grid with fixed granularity:
+-- steps cells along the longer side of the mbb (default 10).
 -------------------------------------------------------------------------
 
+-- The single argument version is replaced by the one with a default step count
+DROP FUNCTION IF EXISTS public.mbb_grid_creator(public.geometry);
+
 CREATE OR REPLACE FUNCTION public.mbb_grid_creator (
-  bound_polygon public.geometry
+  bound_polygon public.geometry,
+  steps INTEGER DEFAULT 10
 )
 RETURNS public.geometry AS
 $body$
@@ -28,9 +33,9 @@ BEGIN
   SRID := ST_SRID($1);
 
   IF ((Xmax - Xmin) > (Ymax - Ymin)) THEN
-      step := (Xmax - Xmin) / 10;
+      step := (Xmax - Xmin) / steps;
   ELSE
-      step := (Ymax - Ymin) / 10;
+      step := (Ymax - Ymin) / steps;
   END IF;
 
   Y := Ymin; --current sector's corner coordinate
@@ -9,12 +9,47 @@ DATABASE=gisdb
 DATASET=geometries
 CONVEX=convex
 CONCAVE=concave
+# Classify in a single pass with the Classifier of the tiling module instead of the SQL below
+JAVA_CLASSIFIER=false
+TILING_JAR=tiling/target/tiling-1.0-jar-with-dependencies.jar
+# Print the polygons to csv files, the input of the tiling option "--polygons", which skips step 2
+EXPORT_CSV=false
+# Split each csv file into this many files, one per "--shard i/SHARDS" of the tiling,
+# the file of shard i holding the ids with id mod SHARDS = i
+SHARDS=1
+
+# Print id, geom from $CONVEX and $CONCAVE to csv files, one per shard
+export_csv() {
+	if [ "$EXPORT_CSV" != true ]; then
+		return 0
+	fi
+	echo
+	echo "Print polygons to files"
+	for TABLE in $CONVEX $CONCAVE; do
+		if [ "$SHARDS" -le 1 ]; then
+			PGPASSWORD=$PASSWORD psql -U postgres -d $DATABASE -c "SELECT id, geom
+				FROM "$TABLE" ORDER BY id ASC;" > $TABLE.csv
+			continue
+		fi
+		for ((SHARD = 0; SHARD < SHARDS; SHARD++)); do
+			PGPASSWORD=$PASSWORD psql -U postgres -d $DATABASE -c "SELECT id, geom
+				FROM "$TABLE" WHERE mod(mod(id, "$SHARDS") + "$SHARDS", "$SHARDS") = "$SHARD" ORDER BY id ASC;" > "$TABLE"_shard"$SHARD".csv
+		done
+	done
+}
 
 echo
 echo "Step 1: Separate convex from concave polygons" 
 
+if [ "$JAVA_CLASSIFIER" = true ]; then
+	java -cp $TILING_JAR org.tiling.Classifier $DATASET $CONVEX $CONCAVE --threads 0 \
+		--jdbc "jdbc:postgresql://localhost/$DATABASE?user=postgres&password=$PASSWORD" || exit $?
+	export_csv
+	exit $?
+fi
+
 # Q1: Create table $CONVEX with all convex polygons from $DATASET
-# Q2: Create table $CONCAVE with all concave polygons from $DATASET
+# Q2: Create table $CONCAVE with all concave polygons, multipolygons and polygons with holes from $DATASET
 
 PGPASSWORD=$PASSWORD psql -U postgres -d $DATABASE -c "
 select id, 
@@ -118,6 +153,10 @@ from (
                         (ST_Dump(ST_Boundary(geom))).path as path -- To identify the polygon
                   from "$DATASET" ) as pointlist ) as segments ) as max_angles ) as final
 
-where isconvex = false and polygon_num = 0 and max_value is not null;"
+-- Multipolygons and polygons with holes, whose boundary rings are numbered from 1, are concave too,
+-- one row each from the first vertex of their first ring, as the tiling tiles their parts separately
+where max_value is not null and ((isconvex = false and polygon_num = 0) or polygon_num = 1);"
+
+export_csv
 
 echo
\ No newline at end of file
@@ -0,0 +1,77 @@
+package org.tiling;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.util.AffineTransformation;
+
+/* Synthetic data sets of figure 9, generated like the scripts generate_random_points,
+ * generate_random_polygons and rotate_mbb_polygons do in the database. */
+final class GeometryFixtures {
+
+	private static final GeometryFactory factory = new GeometryFactory();
+
+	private GeometryFixtures() {
+	}
+
+	/* 'size' geometries of the given type ("points", "axis-aligned", "rotated" or
+	 * "polygons") with ids 1 to size. The rectangles are the MBBs of the polygons
+	 * of the same size, as generated from a fixed seed. */
+	static List<Cell> geometries(String type, int size) {
+		if (type.equals("points"))
+			return points(size, new Random(size));
+
+		List<Cell> polygons = polygons(size, new Random(size + 1));
+		if (type.equals("polygons"))
+			return polygons;
+		if (type.equals("axis-aligned") || type.equals("rotated")) {
+			Random random = new Random(size + 2);
+			List<Cell> rects = new ArrayList<Cell>(size);
+			for (Cell polygon : polygons) {
+				Geometry mbb = polygon.getGeom().getEnvelope();
+				// ST_Rotate turns the geometry about the origin
+				if (type.equals("rotated"))
+					mbb = AffineTransformation.rotationInstance(random.nextDouble() * Math.PI).transform(mbb);
+				rects.add(new Cell(polygon.getShapeId(), "0", mbb));
+			}
+			return rects;
+		}
+		throw new IllegalArgumentException("Unknown geometry type " + type);
+	}
+
+	/* Points in the ranges of generate_random_point. */
+	private static List<Cell> points(int size, Random random) {
+		List<Cell> points = new ArrayList<Cell>(size);
+		for (int id = 1; id <= size; id++) {
+			Coordinate coord = new Coordinate(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180);
+			points.add(new Cell(String.valueOf(id), "0", factory.createPoint(coord)));
+		}
+		return points;
+	}
+
+	/* Polygons of up to 20 vertices at random angles and distances up to 1 from
+	 * a quasicentroid, as in generate_random_polygon. */
+	private static List<Cell> polygons(int size, Random random) {
+		List<Cell> polygons = new ArrayList<Cell>(size);
+		for (int id = 1; id <= size; id++) {
+			double x = random.nextDouble() * 360 - 180, y = random.nextDouble() * 140 - 70;
+			List<Coordinate> nodes = new ArrayList<Coordinate>();
+			double angle = random.nextDouble() * Math.PI / 3;
+			for (int i = 0; i < 20; i++) {
+				double distance = random.nextDouble();
+				nodes.add(new Coordinate(x + Math.sin(angle) * distance, y + Math.cos(angle) * distance));
+				angle += random.nextDouble() * 2 / 3 * Math.PI;
+				if (angle > 2 * Math.PI)
+					break;
+			}
+			nodes.add(new Coordinate(nodes.get(0)));
+			Geometry polygon = factory.createPolygon(factory.createLinearRing(nodes.toArray(new Coordinate[nodes.size()])), null);
+			polygons.add(new Cell(String.valueOf(id), "0", polygon));
+		}
+		return polygons;
+	}
+}
@@ -0,0 +1,100 @@
+package org.tiling;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.WKBWriter;
+
+/* Reading a psql dump of the inner cells of 'polygons' polygons, as step 2
+ * exports them (id | cell | st_astext), with OpenCSV (PsqlDumpSource) and
+ * memory-mapped (MappedDumpSource) on one or 'threads' threads. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InputBenchmark {
+
+	@Param({"2000"})
+	int polygons;
+
+	@Param({"4"})
+	int threads;
+
+	private File dump;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		dump = File.createTempFile("cells", ".csv");
+		GeometryFactory factory = new GeometryFactory();
+		WKBWriter writer = new WKBWriter();
+		try (BufferedWriter out = new BufferedWriter(new FileWriter(dump))) {
+			out.write(" id | cell | st_astext\n");
+			out.write("----+------+----------\n");
+			int rows = 0;
+			for (Cell polygon : GeometryFixtures.geometries("polygons", polygons)) {
+				for (Envelope cell : GridGenerator.innerCells(polygon.getGeom(), GridGenerator.DEFAULT_STEPS, 0)) {
+					Geometry geom = factory.toGeometry(cell);
+					out.write(" " + polygon.getShapeId() + " | " + WKBWriter.toHex(writer.write(geom)) + " | " + geom + "\n");
+					rows++;
+				}
+			}
+			out.write("(" + rows + " rows)\n");
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		dump.delete();
+	}
+
+	@Benchmark
+	public int openCsv() throws IOException {
+		try (PsqlDumpSource source = new PsqlDumpSource(dump.getPath(), false)) {
+			return read(source);
+		}
+	}
+
+	@Benchmark
+	public int mapped() throws IOException {
+		try (MappedDumpSource source = new MappedDumpSource(dump.getPath(), false)) {
+			return read(source);
+		}
+	}
+
+	@Benchmark
+	public int mappedParallel() throws IOException {
+		try (ParallelDumpSource source = new ParallelDumpSource(new MappedDumpSource(dump.getPath(), false), threads, false)) {
+			return read(source);
+		}
+	}
+
+	private static int read(ShapeSource source) throws IOException {
+		int cells = 0;
+		Shape shape;
+		while ((shape = source.next()) != null)
+			cells += shape.cells.size();
+		return cells;
+	}
+}
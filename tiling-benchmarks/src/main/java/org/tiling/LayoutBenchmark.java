@@ -0,0 +1,43 @@
+package org.tiling;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* generateRectangles on the layouts of the commented-out test main of Tiling. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LayoutBenchmark {
+
+	@Param({".ED/ABC", "A../CDE/GH.", "A.B/CDE/GH.", "A.../CDEF/GH..", "A.B./CDEF/GH..", "ABEF/CD.G", "A../BC./.DE/.DF"})
+	String layout;
+
+	private List<Rect> tiles;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		tiles = ShapeFixtures.layout(layout);
+	}
+
+	@Benchmark
+	public List<List<Rect>> generateRectangles() {
+		return Tiling.generateRectangles(new ArrayList<Rect>(tiles), -1, layout);
+	}
+}
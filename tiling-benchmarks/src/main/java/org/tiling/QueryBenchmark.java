@@ -0,0 +1,81 @@
+package org.tiling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/* The matrix of figure 9 (numbers-in-figure-9.csv) with the QueryEngine:
+ * every geometry of a 'from' set queried against a 'to' set of 1000 or 4325
+ * geometries. Each operation indexes the 'to' set and queries all the 'from'
+ * geometries, so it compares with the time of the whole query in PostGIS. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+
+	@Param({"axis-aligned", "rotated", "polygons"})
+	String from;
+
+	@Param({"points", "axis-aligned", "rotated", "polygons"})
+	String to;
+
+	@Param({"1000", "4325"})
+	int fromSize;
+
+	@Param({"1000", "4325"})
+	int toSize;
+
+	// Distance of the within queries, in degrees like the generated data
+	@Param({"1"})
+	double distance;
+
+	private List<List<Geometry>> queries;
+	private List<Cell> targets;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		queries = new ArrayList<List<Geometry>>();
+		for (Cell cell : GeometryFixtures.geometries(from, fromSize))
+			queries.add(Collections.singletonList(cell.getGeom()));
+		targets = GeometryFixtures.geometries(to, toSize);
+	}
+
+	/* Closest 'to' geometry of each 'from' geometry, like queries 3 and 9. */
+	@Benchmark
+	public double nearest() {
+		QueryEngine engine = new QueryEngine(targets);
+		double sum = 0;
+		for (List<Geometry> query : queries)
+			sum += engine.nearest(query).distance;
+		return sum;
+	}
+
+	/* 'to' geometries within distance of each 'from' geometry, like queries 2 and 8. */
+	@Benchmark
+	public int within() {
+		QueryEngine engine = new QueryEngine(targets);
+		int found = 0;
+		for (List<Geometry> query : queries)
+			found += engine.within(query, distance).size();
+		return found;
+	}
+}
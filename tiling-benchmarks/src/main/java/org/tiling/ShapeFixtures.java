@@ -0,0 +1,98 @@
+package org.tiling;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/* Synthetic shapes on the integer grid of mbb_grid_creator (at most 11x11 cells). */
+final class ShapeFixtures {
+
+	private static final int GRID_SIZE = 11;
+
+	private ShapeFixtures() {
+	}
+
+	/* Cells of a shape of the given type ("convex", "l-shape", "u-shape" or "random")
+	 * with 'cells' cells. Random shapes are generated from a fixed seed. */
+	static List<Rect> shape(String type, int cells) {
+		if (type.equals("convex"))
+			return convex(cells);
+		if (type.equals("l-shape"))
+			return lShape(cells);
+		if (type.equals("u-shape"))
+			return uShape(cells);
+		if (type.equals("random"))
+			return random(cells, new Random(cells));
+		throw new IllegalArgumentException("Unknown shape type " + type);
+	}
+
+	/* Cells of a layout such as ".ED/ABC", where rows are separated by '/'
+	 * and '.' marks a missing cell. */
+	static List<Rect> layout(String layout) {
+		String[] rows = layout.split("/");
+		List<Rect> tiles = new ArrayList<Rect>();
+		for (int r = 0; r < rows.length; r++)
+			for (int c = 0; c < rows[r].length(); c++)
+				if (rows[r].charAt(c) != '.')
+					tiles.add(Rect.cell(c, rows.length - 1 - r));
+		return tiles;
+	}
+
+	/* Rows of equal width, the top one possibly shorter. */
+	private static List<Rect> convex(int cells) {
+		int width = (int) Math.ceil(Math.sqrt(cells));
+		List<Rect> tiles = new ArrayList<Rect>();
+		for (int i = 0; i < cells; i++)
+			tiles.add(Rect.cell(i % width, i / width));
+		return tiles;
+	}
+
+	/* A vertical arm of about half the cells up column 0 and a horizontal arm
+	 * of the rest along row 0, both one cell thick. */
+	private static List<Rect> lShape(int cells) {
+		List<Rect> tiles = new ArrayList<Rect>();
+		int arm = Math.max(2, cells / 2);
+		for (int row = 0; row < arm && tiles.size() < cells; row++)
+			tiles.add(Rect.cell(0, row));
+		for (int col = 1; tiles.size() < cells; col++)
+			tiles.add(Rect.cell(col, 0));
+		return tiles;
+	}
+
+	/* Two vertical arms joined by a horizontal base. */
+	private static List<Rect> uShape(int cells) {
+		List<Rect> tiles = new ArrayList<Rect>();
+		int base = Math.max(3, cells / 3);
+		for (int col = 0; col < base && tiles.size() < cells; col++)
+			tiles.add(Rect.cell(col, 0));
+		for (int row = 1; tiles.size() < cells; row++) {
+			tiles.add(Rect.cell(0, row));
+			if (tiles.size() < cells)
+				tiles.add(Rect.cell(base - 1, row));
+		}
+		return tiles;
+	}
+
+	/* Edge-connected cells grown from the centre of the grid. */
+	private static List<Rect> random(int cells, Random random) {
+		List<Rect> tiles = new ArrayList<Rect>();
+		Set<Rect> taken = new HashSet<Rect>();
+		Rect first = Rect.cell(GRID_SIZE / 2, GRID_SIZE / 2);
+		tiles.add(first);
+		taken.add(first);
+		while (tiles.size() < cells) {
+			Rect from = tiles.get(random.nextInt(tiles.size()));
+			int direction = random.nextInt(4);
+			int col = from.x0() + (direction == 0 ? 1 : direction == 1 ? -1 : 0);
+			int row = from.y0() + (direction == 2 ? 1 : direction == 3 ? -1 : 0);
+			if (col < 0 || row < 0 || col >= GRID_SIZE || row >= GRID_SIZE)
+				continue;
+			Rect cell = Rect.cell(col, row);
+			if (taken.add(cell))
+				tiles.add(cell);
+		}
+		return tiles;
+	}
+}
@@ -0,0 +1,86 @@
+package org.tiling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* Hot paths of Tiling on synthetic shapes of 4 to 12 cells,
+ * the LOWER_LIMIT and UPPER_LIMIT of step2-inner-griding.sh. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TilingBenchmark {
+
+	@Param({"4", "5", "6", "7", "8", "9", "10", "11", "12"})
+	int cells;
+
+	@Param({"convex", "l-shape", "u-shape", "random"})
+	String shape;
+
+	private List<Rect> tiles;
+	private List<Rect> tilesByArea;
+	private List<List<Rect>> candidateCombos;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		tiles = ShapeFixtures.shape(shape, cells);
+		tilesByArea = new ArrayList<Rect>(tiles);
+		Collections.sort(tilesByArea, new SortByArea());
+
+		// The combinations of the second round of generateRectangles, with duplicates
+		candidateCombos = new ArrayList<List<Rect>>();
+		for (List<Rect> combo : Tiling.combineTiles(new ArrayList<Rect>(tiles)))
+			candidateCombos.addAll(Tiling.combineTiles(new ArrayList<Rect>(combo)));
+	}
+
+	@Benchmark
+	public List<List<Rect>> combineTiles() {
+		return Tiling.combineTiles(new ArrayList<Rect>(tiles));
+	}
+
+	@Benchmark
+	public int containment() {
+		ComboSet combos = new ComboSet();
+		for (List<Rect> combo : candidateCombos)
+			combos.add(combo);
+		return combos.size();
+	}
+
+	@Benchmark
+	public boolean contiguity() {
+		return Tiling.contiguity(tiles);
+	}
+
+	/* The branch and bound search of --desired-tiles 3 over the cells. */
+	@Benchmark
+	public Tiling.BestCombos desiredTiles() {
+		return Tiling.getCombinations(tilesByArea, 3, 0);
+	}
+
+	@Benchmark
+	public List<List<Rect>> generateRectangles() {
+		return Tiling.generateRectangles(new ArrayList<Rect>(tiles), -1, shape);
+	}
+
+	@Benchmark
+	public List<Rect> partition() {
+		return RectanglePartition.partition(tiles);
+	}
+}
@@ -0,0 +1,152 @@
+package org.tiling;
+
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/* Reads the records of a file written by BinarySink, in either layout, by
+ * index. The file is mapped into memory in segments of SEGMENT_ROWS records,
+ * so only the pages of the fields read are loaded, and the accessors can be
+ * called by many threads. The mappings are released when the reader is collected. */
+final class BinaryReader {
+
+	// A whole number of blocks of BLOCK_ROWS records, below 2 GB
+	static final int SEGMENT_ROWS = BinarySink.BLOCK_ROWS * 4096;
+
+	private static final GeometryFactory factory = new GeometryFactory();
+
+	private final int layout;
+	private final long count;
+	private final ByteBuffer[] segments;
+
+	BinaryReader(String inputFile) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(inputFile, "r")) {
+			FileChannel channel = file.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(BinarySink.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining() && channel.read(header) >= 0)
+				;
+			header.flip();
+			if (header.remaining() < BinarySink.HEADER_SIZE || header.getInt() != BinarySink.MAGIC)
+				throw new IOException(inputFile + " is not a binary rectangle file");
+			layout = header.getInt();
+			count = header.getLong();
+			if ((layout != BinarySink.ROWS && layout != BinarySink.COLUMNS) || count < 0
+					|| channel.size() < BinarySink.HEADER_SIZE + count * BinarySink.RECORD_SIZE)
+				throw new IOException(inputFile + " is truncated or corrupt");
+
+			segments = new ByteBuffer[(int) ((count + SEGMENT_ROWS - 1) / SEGMENT_ROWS)];
+			for (int s = 0; s < segments.length; s++) {
+				long rows = Math.min(SEGMENT_ROWS, count - (long) s * SEGMENT_ROWS);
+				segments[s] = channel.map(FileChannel.MapMode.READ_ONLY,
+						BinarySink.HEADER_SIZE + (long) s * SEGMENT_ROWS * BinarySink.RECORD_SIZE, rows * BinarySink.RECORD_SIZE)
+						.order(ByteOrder.LITTLE_ENDIAN);
+			}
+		}
+	}
+
+	/* Return true if the file starts with the MAGIC of BinarySink. Throw instead
+	 * if it starts with the zeroed header of a BinarySink that was not finished,
+	 * which text outputs never start with. */
+	static boolean isBinary(String inputFile) throws IOException {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(inputFile))) {
+			if (in.available() < 4)
+				return false;
+			int magic = Integer.reverseBytes(in.readInt());
+			if (magic == 0)
+				throw new IOException(inputFile + " is the binary output of a run that did not finish");
+			return magic == BinarySink.MAGIC;
+		}
+	}
+
+	long size() {
+		return count;
+	}
+
+	/* BinarySink.ROWS or BinarySink.COLUMNS. */
+	int layout() {
+		return layout;
+	}
+
+	int shapeId(long record) {
+		return segment(record).getInt(intOffset(record, 0));
+	}
+
+	int comboId(long record) {
+		return segment(record).getInt(intOffset(record, 1));
+	}
+
+	double minX(long record) {
+		return segment(record).getDouble(doubleOffset(record, 0));
+	}
+
+	double minY(long record) {
+		return segment(record).getDouble(doubleOffset(record, 1));
+	}
+
+	double maxX(long record) {
+		return segment(record).getDouble(doubleOffset(record, 2));
+	}
+
+	double maxY(long record) {
+		return segment(record).getDouble(doubleOffset(record, 3));
+	}
+
+	Envelope envelope(long record) {
+		return new Envelope(minX(record), maxX(record), minY(record), maxY(record));
+	}
+
+	/* The rectangle of record as a polygon, like the ones Tiling writes. */
+	Cell cell(long record) {
+		double minX = minX(record), minY = minY(record), maxX = maxX(record), maxY = maxY(record);
+		Coordinate[] coords = new Coordinate[] {
+				new Coordinate(minX, minY),
+				new Coordinate(minX, maxY),
+				new Coordinate(maxX, maxY),
+				new Coordinate(maxX, minY),
+				new Coordinate(minX, minY) };
+		return new Cell(String.valueOf(shapeId(record)), String.valueOf(comboId(record)),
+				factory.createPolygon(factory.createLinearRing(coords), null));
+	}
+
+	private ByteBuffer segment(long record) {
+		if (record < 0 || record >= count)
+			throw new IndexOutOfBoundsException("Record " + record + " of " + count);
+		return segments[(int) (record / SEGMENT_ROWS)];
+	}
+
+	/* Offset of int field 0 (shapeId) or 1 (comboId) of record in its segment. */
+	private int intOffset(long record, int field) {
+		int row = (int) (record % SEGMENT_ROWS);
+		if (layout == BinarySink.ROWS)
+			return row * BinarySink.RECORD_SIZE + 4 * field;
+		int rows = blockRows(record);
+		return blockStart(row) + 4 * (field * rows + row % BinarySink.BLOCK_ROWS);
+	}
+
+	/* Offset of double field 0 (minX) to 3 (maxY) of record in its segment. */
+	private int doubleOffset(long record, int field) {
+		int row = (int) (record % SEGMENT_ROWS);
+		if (layout == BinarySink.ROWS)
+			return row * BinarySink.RECORD_SIZE + 8 + 8 * field;
+		int rows = blockRows(record);
+		return blockStart(row) + 8 * rows + 8 * (field * rows + row % BinarySink.BLOCK_ROWS);
+	}
+
+	private static int blockStart(int row) {
+		return row / BinarySink.BLOCK_ROWS * BinarySink.BLOCK_ROWS * BinarySink.RECORD_SIZE;
+	}
+
+	/* Number of records of the block of record, less than BLOCK_ROWS for the last block. */
+	private int blockRows(long record) {
+		long blockStart = record / BinarySink.BLOCK_ROWS * BinarySink.BLOCK_ROWS;
+		return (int) Math.min(BinarySink.BLOCK_ROWS, count - blockStart);
+	}
+}
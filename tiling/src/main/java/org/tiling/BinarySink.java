@@ -0,0 +1,124 @@
+package org.tiling;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/* Writes the generated rectangles to a binary file of fixed-width records
+ * (shapeId, comboId, minX, minY, maxX, maxY), an int, an int and 4 doubles,
+ * little endian, which BinaryReader maps into memory.
+ * The file starts with a HEADER_SIZE byte header: MAGIC, the layout (an int)
+ * and the number of records (a long), written by finish(), so that the file of
+ * a failed run keeps a zeroed header and no reader takes it for complete. In the ROWS layout the records follow
+ * one after the other. In the COLUMNS layout they are grouped into blocks of
+ * BLOCK_ROWS records, the last one shorter, each holding the shapeIds of its
+ * records, then the comboIds, the minXs, the minYs, the maxXs and the maxYs. */
+final class BinarySink implements ShapeSink {
+
+	static final int MAGIC = 0x31524254; // "TBR1"
+	static final int ROWS = 0;
+	static final int COLUMNS = 1;
+	static final int HEADER_SIZE = 16;
+	static final int RECORD_SIZE = 40;
+	static final int BLOCK_ROWS = 4096;
+
+	private final String outputFile;
+	private final int layout;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocate(BLOCK_ROWS * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	// Records of the current block of the COLUMNS layout
+	private final int[] shapeIds = new int[BLOCK_ROWS];
+	private final int[] comboIds = new int[BLOCK_ROWS];
+	private final double[][] bounds = new double[4][BLOCK_ROWS];
+	private int blockRows;
+	private long count;
+
+	BinarySink(String outputFile, int layout) throws IOException {
+		if (layout != ROWS && layout != COLUMNS)
+			throw new IllegalArgumentException("Unknown layout " + layout);
+		this.outputFile = outputFile;
+		this.layout = layout;
+		file = new RandomAccessFile(outputFile, "rw");
+		file.setLength(0);
+		channel = file.getChannel();
+		// The header is written by finish()
+		channel.position(HEADER_SIZE);
+	}
+
+	@Override
+	public void write(List<Cell> newCells) throws IOException {
+		for (Cell cell : newCells) {
+			Envelope rect = cell.getGeom().getEnvelopeInternal();
+			write(intValue(cell.getShapeId()), intValue(cell.getComboId()),
+					rect.getMinX(), rect.getMinY(), rect.getMaxX(), rect.getMaxY());
+		}
+	}
+
+	/* Write a single record, e.g. copied from a BinaryReader. */
+	void write(int shapeId, int comboId, double minX, double minY, double maxX, double maxY) throws IOException {
+		if (layout == ROWS) {
+			if (!buffer.hasRemaining())
+				flush();
+			buffer.putInt(shapeId).putInt(comboId).putDouble(minX).putDouble(minY).putDouble(maxX).putDouble(maxY);
+		}
+		else {
+			shapeIds[blockRows] = shapeId;
+			comboIds[blockRows] = comboId;
+			bounds[0][blockRows] = minX;
+			bounds[1][blockRows] = minY;
+			bounds[2][blockRows] = maxX;
+			bounds[3][blockRows] = maxY;
+			if (++blockRows == BLOCK_ROWS)
+				writeBlock();
+		}
+		count++;
+	}
+
+	private int intValue(String id) throws IOException {
+		try {
+			return Integer.parseInt(id);
+		} catch (NumberFormatException e) {
+			throw new IOException("Id " + id + " does not fit the integer fields of " + outputFile, e);
+		}
+	}
+
+	private void writeBlock() throws IOException {
+		buffer.asIntBuffer().put(shapeIds, 0, blockRows).put(comboIds, 0, blockRows);
+		buffer.position(8 * blockRows);
+		for (double[] column : bounds) {
+			buffer.asDoubleBuffer().put(column, 0, blockRows);
+			buffer.position(buffer.position() + 8 * blockRows);
+		}
+		blockRows = 0;
+		flush();
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	@Override
+	public void finish() throws IOException {
+		if (layout == COLUMNS && blockRows > 0)
+			writeBlock();
+		flush();
+		buffer.putInt(MAGIC).putInt(layout).putLong(count).flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer, buffer.position());
+		buffer.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+}
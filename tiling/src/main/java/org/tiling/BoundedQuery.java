@@ -0,0 +1,186 @@
+package org.tiling;
+
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.opencsv.CSVReader;
+import com.opencsv.CSVWriter;
+import com.opencsv.exceptions.CsvValidationException;
+import com.vividsolutions.jts.geom.Geometry;
+
+/* Runs the queries on the bounded rectangles of the queries file in memory,
+ * with a QueryEngine over the targets instead of the tables of PostGIS.
+ * The bounded rectangles are the csv (shapeId, comboId, st_astext) or binary output of Tiling,
+ * the targets a psql dump of points or polygons (id | geom), and the result a
+ * csv file (shapeId, comboId, targetId[, distance]):
+ * BoundedQuery <bounded> <targets> <output> --within <distance> | --nearest [--first-combo] [--bounded-targets]
+ * --within --> Targets within distance of each combination, like queries 4 and 10
+ * --nearest --> Closest target to each combination, like queries 5 and 11
+ * --first-combo --> Only the first combination of each shape, like queries 6 and 12
+ * --bounded-targets --> The targets are the first combinations of the csv output
+ *                       of Tiling for the polygons, as polygon_bounded in queries 10 to 12 */
+final class BoundedQuery {
+
+	static final String USAGE = "Usage: BoundedQuery <bounded> <targets> <output> --within <distance> | --nearest"
+			+ " [--first-combo] [--bounded-targets]";
+
+	private BoundedQuery() {
+	}
+
+	/* Return the rectangles of the csv or binary output of Tiling, only those of
+	 * the first combination of each shape if firstCombo is true. */
+	static List<Cell> readBounded(String inputFile, boolean firstCombo) throws IOException {
+		List<Cell> rects = new ArrayList<Cell>();
+		if (BinaryReader.isBinary(inputFile)) {
+			BinaryReader reader = new BinaryReader(inputFile);
+			for (long i = 0; i < reader.size(); i++)
+				if (!firstCombo || reader.comboId(i) == 0)
+					rects.add(reader.cell(i));
+			return rects;
+		}
+		try (CSVReader reader = new CSVReader(new FileReader(inputFile))) {
+			reader.skip(1); // header
+			String[] line;
+			while ((line = reader.readNext()) != null) {
+				if (line.length < 3)
+					throw new IOException("Missing column on line " + reader.getLinesRead() + " of " + inputFile);
+				if (firstCombo && !line[1].equals("0"))
+					continue;
+				try {
+					rects.add(new Cell(line[0], line[1], CellDecoder.readWKT(line[2])));
+				} catch (IllegalArgumentException e) {
+					throw new IOException("Invalid rectangle on line " + reader.getLinesRead() + " of " + inputFile, e);
+				}
+			}
+		} catch (CsvValidationException e) {
+			throw new IOException("Invalid line in " + inputFile, e);
+		}
+		return rects;
+	}
+
+	static List<Cell> readTargets(String inputFile) throws IOException {
+		List<Cell> targets = new ArrayList<Cell>();
+		try (PsqlDumpSource source = new PsqlDumpSource(inputFile, false)) {
+			Cell target;
+			while ((target = source.nextPolygon()) != null) {
+				try {
+					target.getGeom();
+				} catch (IllegalArgumentException e) {
+					throw new IOException("Invalid geometry " + target.getShapeId() + " in " + inputFile, e);
+				}
+				targets.add(target);
+			}
+		}
+		return targets;
+	}
+
+	/* Write the targets within distance of each combination of bounded, or the closest
+	 * target if distance is negative. The rectangles of a combination must be consecutive,
+	 * as Tiling writes them. Return the number of rows written. */
+	static int query(List<Cell> bounded, QueryEngine engine, double distance, CSVWriter writer) {
+		int rows = 0;
+		List<Geometry> combo = new ArrayList<Geometry>();
+		for (int i = 0; i < bounded.size(); i++) {
+			Cell rect = bounded.get(i);
+			combo.add(rect.getGeom());
+			if (i + 1 < bounded.size() && bounded.get(i + 1).getShapeId().equals(rect.getShapeId())
+					&& bounded.get(i + 1).getComboId().equals(rect.getComboId()))
+				continue;
+
+			if (distance >= 0) {
+				for (String target : engine.within(combo, distance)) {
+					writer.writeNext(new String[] {rect.getShapeId(), rect.getComboId(), target});
+					rows++;
+				}
+			}
+			else {
+				QueryEngine.Nearest nearest = engine.nearest(combo);
+				if (nearest != null) {
+					writer.writeNext(new String[] {rect.getShapeId(), rect.getComboId(), nearest.id, String.valueOf(nearest.distance)});
+					rows++;
+				}
+			}
+			combo.clear();
+		}
+		return rows;
+	}
+
+	public static void main(String[] args) {
+		String[] files = new String[3];
+		int positional = 0;
+		double distance = Double.NaN;
+		boolean nearest = false, firstCombo = false, boundedTargets = false;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if (arg.equals("--within")) {
+					String value = Options.value(args, ++i, arg);
+					try {
+						distance = Double.parseDouble(value);
+					} catch (NumberFormatException e) {
+						throw new IllegalArgumentException("Option " + arg + " expects a number, got " + value);
+					}
+					if (!(distance >= 0))
+						throw new IllegalArgumentException("Option " + arg + " must not be negative");
+				}
+				else if (arg.equals("--nearest")) {
+					nearest = true;
+				}
+				else if (arg.equals("--first-combo")) {
+					firstCombo = true;
+				}
+				else if (arg.equals("--bounded-targets")) {
+					boundedTargets = true;
+				}
+				else if (arg.startsWith("--")) {
+					throw new IllegalArgumentException("Unknown option " + arg);
+				}
+				else if (positional < 3) {
+					files[positional++] = arg;
+				}
+				else {
+					throw new IllegalArgumentException("Unexpected argument " + arg);
+				}
+			}
+			if (positional < 3)
+				throw new IllegalArgumentException("Missing input or output");
+			if (nearest == !Double.isNaN(distance))
+				throw new IllegalArgumentException("Expected either --within or --nearest");
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			return;
+		}
+
+		long start = System.nanoTime();
+		List<Cell> bounded;
+		QueryEngine engine;
+		try {
+			bounded = readBounded(files[0], firstCombo);
+			engine = new QueryEngine(boundedTargets ? readBounded(files[1], true) : readTargets(files[1]));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		long loaded = System.nanoTime();
+
+		int rows;
+		try (CSVWriter writer = new CSVWriter(new FileWriter(files[2]))) {
+			writer.writeNext(nearest ? new String[] {"shapeId", "comboId", "targetId", "distance"}
+					: new String[] {"shapeId", "comboId", "targetId"});
+			rows = query(bounded, engine, nearest ? -1 : distance, writer);
+			if (writer.checkError())
+				throw new IOException("Failed to write " + files[2]);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		long end = System.nanoTime();
+
+		System.out.println("Indexed " + engine.size() + " targets in " + (loaded - start) / 1000000 + " ms");
+		System.out.println("Wrote " + rows + " rows in " + (end - loaded) / 1000000 + " ms");
+	}
+}
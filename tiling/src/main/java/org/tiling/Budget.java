@@ -0,0 +1,68 @@
+package org.tiling;
+
+import java.util.List;
+
+/* Limits on the work of the merge rounds for one shape: wall time, number of
+ * combinations generated, and their estimated memory. A limit of 0 is no limit.
+ * Once a limit is hit the budget stays exceeded, and the rounds stop and keep
+ * the combinations with the fewest rectangles found so far.
+ * The memory is estimated as COMBO_BYTES per combination and RECT_BYTES per
+ * rectangle generated, so it grows with the work and not with what is retained. */
+final class Budget {
+
+	static final Budget UNLIMITED = new Budget(0, 0, 0);
+
+	static final long COMBO_BYTES = 64;
+	static final long RECT_BYTES = 16;
+
+	private final long timeMillis;
+	private final long maxCombos;
+	private final long maxMegabytes;
+	private final long deadline;
+	private final boolean limited;
+	private long combos;
+	private long bytes;
+	private String exceeded;
+
+	/* Budget starting now, of timeMillis ms, maxCombos combinations and maxMegabytes MB. */
+	Budget(long timeMillis, long maxCombos, long maxMegabytes) {
+		this.timeMillis = timeMillis;
+		this.maxCombos = maxCombos;
+		this.maxMegabytes = maxMegabytes;
+		this.limited = timeMillis > 0 || maxCombos > 0 || maxMegabytes > 0;
+		this.deadline = timeMillis > 0 ? System.nanoTime() + timeMillis * 1000000 : 0;
+	}
+
+	/* Count the combinations generated. */
+	void spend(List<List<Rect>> newCombos) {
+		if (!limited)
+			return;
+		combos += newCombos.size();
+		for (List<Rect> combo : newCombos)
+			bytes += COMBO_BYTES + RECT_BYTES * combo.size();
+	}
+
+	/* Return true if a limit has been hit. */
+	boolean exhausted() {
+		if (!limited)
+			return false;
+		if (exceeded != null)
+			return true;
+		if (timeMillis > 0 && System.nanoTime() - deadline > 0)
+			exceeded = "time budget of " + timeMillis + " ms";
+		else if (maxCombos > 0 && combos > maxCombos)
+			exceeded = "budget of " + maxCombos + " combinations";
+		else if (maxMegabytes > 0 && bytes > maxMegabytes << 20)
+			exceeded = "memory budget of " + maxMegabytes + " MB";
+		return exceeded != null;
+	}
+
+	/* The limit hit, or null if the rounds completed within the budget. */
+	String exceeded() {
+		return exceeded;
+	}
+
+	long combos() {
+		return combos;
+	}
+}
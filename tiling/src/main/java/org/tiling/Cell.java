@@ -0,0 +1,80 @@
+package org.tiling;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+class Cell {
+	/* Geometry of the cell, parsed on first use from WKB, or WKT if there is no WKB */
+	public Geometry getGeom() {
+		if (geom == null)
+			geom = cellWKB != null ? CellDecoder.readWKB(cellWKB) : CellDecoder.readWKT(cellWKT);
+		return geom;
+	}
+	
+	/* Envelope of the cell, decoded straight from WKB when the geometry is not parsed */
+	public Envelope getEnvelope() {
+		if (geom == null && cellWKB != null)
+			return CellDecoder.envelopeOfWKB(cellWKB);
+		return getGeom().getEnvelopeInternal();
+	}
+	
+	public String getWKB() {
+		return cellWKB;
+	}
+	
+	public String getWKT() {
+		return cellWKT != null ? cellWKT : getGeom().toString();
+	}
+
+	public String getShapeId() {
+		return shapeId;
+	}
+
+	public String getComboId() {
+		return comboId;
+	}
+
+	/* False if the rectangle is from the best combinations found when the budget of its shape ran out */
+	public boolean isOptimal() {
+		return optimal;
+	}
+
+	private String shapeId;
+	private String comboId;
+	private String cellWKB;
+	private String cellWKT;
+	private Geometry geom;
+	private boolean optimal = true;
+	
+	/* Input cell in hex (E)WKB and/or WKT, either of which may be null. 
+	 * Nothing is parsed until the geometry or the envelope is requested. */
+	public Cell(String shapeId, String cellWKB, String cellWKT) {
+		this(shapeId, null, cellWKB, cellWKT);
+	}
+	
+	/* Output rectangle in hex (E)WKB and/or WKT, as read back from an output file. */
+	public Cell(String shapeId, String comboId, String cellWKB, String cellWKT) {
+		super();
+		this.shapeId = shapeId.trim();
+		this.comboId = comboId;
+		this.cellWKB = cellWKB != null ? cellWKB.trim() : null;
+		this.cellWKT = cellWKT != null ? cellWKT.trim() : null;
+	}
+	
+	public Cell(String shapeId, String comboId, Geometry geom) {
+		this(shapeId, comboId, geom, true);
+	}
+	
+	public Cell(String shapeId, String comboId, Geometry geom, boolean optimal) {
+		super();
+		this.shapeId = shapeId.trim();
+		this.comboId = comboId;
+		this.geom = geom;
+		this.optimal = optimal;
+	}
+	
+	@Override
+	public String toString() {
+		return "Cell [shape id=" + shapeId + ", combo id=" + comboId + ", wkt=" + getWKT() + "]";
+	}
+}
@@ -0,0 +1,220 @@
+package org.tiling;
+
+import java.nio.ByteBuffer;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKTReader;
+
+/* Decoding of cell geometries from (E)WKB, in hex or binary, and WKT.
+ * Cells only need their envelope, so polygons are decoded straight from the
+ * WKB bytes into their bounds, without building a JTS Polygon. */
+final class CellDecoder {
+
+	private static final int WKB_POLYGON = 3;
+	private static final int EWKB_Z = 0x80000000;
+	private static final int EWKB_M = 0x40000000;
+	private static final int EWKB_SRID = 0x20000000;
+
+	// JTS readers are not thread-safe, so every thread parses with its own
+	private static final ThreadLocal<WKBReader> readerWKB = new ThreadLocal<WKBReader>() {
+		@Override
+		protected WKBReader initialValue() {
+			return new WKBReader();
+		}
+	};
+	private static final ThreadLocal<WKTReader> readerWKT = new ThreadLocal<WKTReader>() {
+		@Override
+		protected WKTReader initialValue() {
+			return new WKTReader();
+		}
+	};
+
+	private CellDecoder() {
+	}
+
+	static Geometry readWKB(String hex) {
+		try {
+			return readerWKB.get().read(WKBReader.hexToBytes(hex));
+		} catch (ParseException e) {
+			throw new IllegalArgumentException("Invalid WKB geometry: " + e.getMessage(), e);
+		}
+	}
+
+	static Geometry readWKB(byte[] wkb) {
+		try {
+			return readerWKB.get().read(wkb);
+		} catch (ParseException e) {
+			throw new IllegalArgumentException("Invalid WKB geometry: " + e.getMessage(), e);
+		}
+	}
+
+	static Geometry readWKT(String text) {
+		try {
+			return readerWKT.get().read(text);
+		} catch (ParseException e) {
+			throw new IllegalArgumentException("Invalid WKT geometry: " + e.getMessage(), e);
+		}
+	}
+
+	/* Return the envelope of the (E)WKB geometry in hex[start, end).
+	 * Polygons are decoded directly from the hex characters, any other
+	 * geometry type is parsed with JTS. */
+	static Envelope envelopeOfWKB(final CharSequence hex, final int start, final int end) {
+		return envelopeOf(new WKBInput() {
+			@Override
+			int length() {
+				return (end - start) / 2;
+			}
+
+			@Override
+			int byteAt(int index) {
+				int pos = start + 2 * index;
+				return (digit(hex.charAt(pos)) << 4) | digit(hex.charAt(pos + 1));
+			}
+
+			@Override
+			Geometry read() {
+				return readWKB(hex.subSequence(start, end).toString());
+			}
+		});
+	}
+
+	/* Return the envelope of the (E)WKB geometry in the hex characters of
+	 * buffer[start, end), e.g. a mapped file, without copying them out. */
+	static Envelope envelopeOfWKB(final ByteBuffer buffer, final int start, final int end) {
+		return envelopeOf(new WKBInput() {
+			@Override
+			int length() {
+				return (end - start) / 2;
+			}
+
+			@Override
+			int byteAt(int index) {
+				int pos = start + 2 * index;
+				return (digit((char) buffer.get(pos)) << 4) | digit((char) buffer.get(pos + 1));
+			}
+
+			@Override
+			Geometry read() {
+				return readWKB(MappedDumpSource.ascii(buffer, start, end));
+			}
+		});
+	}
+
+	static Envelope envelopeOfWKB(CharSequence hex) {
+		return envelopeOfWKB(hex, 0, hex.length());
+	}
+
+	/* Return the envelope of the binary (E)WKB geometry wkb. */
+	static Envelope envelopeOfWKB(final byte[] wkb) {
+		return envelopeOf(new WKBInput() {
+			@Override
+			int length() {
+				return wkb.length;
+			}
+
+			@Override
+			int byteAt(int index) {
+				return wkb[index] & 0xFF;
+			}
+
+			@Override
+			Geometry read() {
+				return readWKB(wkb);
+			}
+		});
+	}
+
+	/* Bytes of a WKB geometry, as hex characters or raw bytes. */
+	private abstract static class WKBInput {
+		abstract int length();
+
+		abstract int byteAt(int index);
+
+		/* Parse the whole geometry with JTS. */
+		abstract Geometry read();
+
+		int intAt(int index, boolean littleEndian) {
+			int value = 0;
+			for (int i = 0; i < 4; i++) {
+				int b = byteAt(index + i);
+				value |= littleEndian ? b << (8 * i) : b << (8 * (3 - i));
+			}
+			return value;
+		}
+
+		long longAt(int index, boolean littleEndian) {
+			long value = 0;
+			for (int i = 0; i < 8; i++) {
+				long b = byteAt(index + i);
+				value |= littleEndian ? b << (8 * i) : b << (8 * (7 - i));
+			}
+			return value;
+		}
+	}
+
+	private static Envelope envelopeOf(WKBInput wkb) {
+		if (wkb.length() < 9)
+			throw new IllegalArgumentException("Invalid WKB geometry: too short");
+
+		int pos = 0;
+		boolean littleEndian = wkb.byteAt(pos) == 1;
+		pos += 1;
+		int type = wkb.intAt(pos, littleEndian);
+		pos += 4;
+
+		int dimensions = 2;
+		if ((type & EWKB_Z) != 0)
+			dimensions++;
+		if ((type & EWKB_M) != 0)
+			dimensions++;
+		if ((type & EWKB_SRID) != 0)
+			pos += 4;
+		int baseType = type & 0x0FFFFFFF;
+		if (baseType > 1000) {
+			// ISO WKB: 1000s for Z, 2000s for M, 3000s for ZM
+			dimensions += baseType / 1000 == 3 ? 2 : 1;
+			baseType %= 1000;
+		}
+
+		if (baseType != WKB_POLYGON)
+			return wkb.read().getEnvelopeInternal();
+
+		int rings = wkb.intAt(pos, littleEndian);
+		pos += 4;
+		if (rings == 0)
+			return new Envelope();
+
+		// The exterior ring bounds the whole polygon
+		int points = wkb.intAt(pos, littleEndian);
+		pos += 4;
+		if (pos + 8L * points * dimensions > wkb.length())
+			throw new IllegalArgumentException("Invalid WKB geometry: truncated");
+
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < points; i++) {
+			double x = Double.longBitsToDouble(wkb.longAt(pos, littleEndian));
+			double y = Double.longBitsToDouble(wkb.longAt(pos + 8, littleEndian));
+			pos += 8 * dimensions;
+			minX = Math.min(minX, x);
+			maxX = Math.max(maxX, x);
+			minY = Math.min(minY, y);
+			maxY = Math.max(maxY, y);
+		}
+		return new Envelope(minX, maxX, minY, maxY);
+	}
+
+	private static int digit(char c) {
+		if (c >= '0' && c <= '9')
+			return c - '0';
+		if (c >= 'A' && c <= 'F')
+			return c - 'A' + 10;
+		if (c >= 'a' && c <= 'f')
+			return c - 'a' + 10;
+		throw new IllegalArgumentException("Invalid WKB geometry: unexpected character '" + c + "'");
+	}
+}
@@ -0,0 +1,103 @@
+package org.tiling;
+
+/* Occupancy bitmap of the cells of a shape grid. Each row of the grid is
+ * stored in one or more longs, one bit per cell, so a shape of the 11x11 grid
+ * of mbb_grid_creator takes 11 longs. Contiguity is checked with a flood fill
+ * made of shifts and masks. Masks are reused per thread through local(),
+ * so checking a combination allocates nothing. */
+final class CellMask {
+
+	private static final ThreadLocal<CellMask> local = new ThreadLocal<CellMask>() {
+		@Override
+		protected CellMask initialValue() {
+			return new CellMask();
+		}
+	};
+
+	private int height;
+	private int words;
+	private long[] cells = new long[0];
+	private long[] reached = new long[0];
+
+	/* Return the empty mask of this thread, sized for a width x height grid. */
+	static CellMask local(int width, int height) {
+		CellMask mask = local.get();
+		mask.reset(width, height);
+		return mask;
+	}
+
+	/* Empty the mask and size it for a width x height grid. */
+	void reset(int width, int height) {
+		this.height = height;
+		this.words = (width + 63) >>> 6;
+		int length = words * height;
+		if (cells.length < length) {
+			cells = new long[length];
+			reached = new long[length];
+		}
+		else {
+			for (int i = 0; i < length; i++)
+				cells[i] = 0;
+		}
+	}
+
+	/* Mark the cells of rect as occupied. */
+	void add(Rect rect) {
+		for (int y = rect.y0(); y < rect.y1(); y++)
+			setRow(y, rect.x0(), rect.x1());
+	}
+
+	private void setRow(int y, int x0, int x1) {
+		int row = y * words;
+		for (int w = x0 >>> 6; w <= (x1 - 1) >>> 6; w++) {
+			int from = Math.max(x0 - (w << 6), 0);
+			int to = Math.min(x1 - (w << 6), 64);
+			long bits = to == 64 ? -1L : (1L << to) - 1;
+			cells[row + w] |= bits & (-1L << from);
+		}
+	}
+
+	/* Return true if the occupied cells are connected through common edges
+	 * (a common corner is not enough), otherwise return false. */
+	boolean connected() {
+		int length = words * height;
+		int seed = -1;
+		for (int i = 0; i < length; i++) {
+			reached[i] = 0;
+			if (seed == -1 && cells[i] != 0)
+				seed = i;
+		}
+		if (seed == -1)
+			return true;
+		reached[seed] = Long.lowestOneBit(cells[seed]);
+
+		// Grow the reached cells to their occupied neighbours until nothing changes
+		boolean changed;
+		do {
+			changed = false;
+			for (int i = 0; i < length; i++) {
+				int w = i % words;
+				long r = reached[i];
+				long grow = r | (r << 1) | (r >>> 1);
+				if (w > 0)
+					grow |= reached[i - 1] >>> 63;
+				if (w < words - 1)
+					grow |= reached[i + 1] << 63;
+				if (i >= words)
+					grow |= reached[i - words];
+				if (i + words < length)
+					grow |= reached[i + words];
+				grow &= cells[i];
+				if (grow != r) {
+					reached[i] = grow;
+					changed = true;
+				}
+			}
+		} while (changed);
+
+		for (int i = 0; i < length; i++)
+			if (reached[i] != cells[i])
+				return false;
+		return true;
+	}
+}
@@ -0,0 +1,212 @@
+package org.tiling;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Polygon;
+
+/* Splits polygons into convex and concave ones, like concaveness-classifier.sql
+ * does in step1, in a single pass over the input that writes both outputs.
+ * Input and outputs are psql dumps (id | geom), or tables (id, geom) with --jdbc:
+ * Classifier <input> <convex output> <concave output> [--threads <n>] [--jdbc <url>]
+ * --threads --> Number of threads classifying the polygons, 0 for one per available core (default 1)
+ * --jdbc --> Read and write tables of the PostGIS database at this JDBC url */
+final class Classifier {
+
+	static final String USAGE = "Usage: Classifier <input> <convex output> <concave output> [--threads <n>] [--jdbc <url>]";
+
+	// Polygons classified per task, as a single polygon is too little work
+	static final int BATCH_SIZE = 1024;
+
+	private Classifier() {
+	}
+
+	/* Return TRUE if polygon is convex, FALSE if it is concave, or null if it is
+	 * not classified, e.g. empty.
+	 * Like the SQL, the angle at each vertex is the clockwise angle between the
+	 * directions of the segments before and after it, and the polygon is convex
+	 * if all of them are under 180 degrees, which is the case for convex polygons
+	 * with clockwise rings. The angle is under 180 degrees if the cross product
+	 * of the directions is negative, or zero when the segments go straight on.
+	 * Segments of zero length are ignored, as ST_Angle is NULL for them.
+	 * Multipolygons and polygons with holes are concave, as the SQL takes every
+	 * geometry whose boundary is a multilinestring, so that the tiling gets them
+	 * and tiles the contiguous parts of their cells separately. */
+	static Boolean convex(Geometry polygon) {
+		if (polygon.isEmpty())
+			return null;
+		if (polygon instanceof MultiPolygon || (polygon instanceof Polygon && ((Polygon) polygon).getNumInteriorRing() > 0))
+			return Boolean.FALSE;
+		if (!(polygon instanceof Polygon))
+			return null;
+
+		CoordinateSequence ring = ((Polygon) polygon).getExteriorRing().getCoordinateSequence();
+		// The last point closes the ring, so vertex 0 is between segments n-1 and 0
+		int n = ring.size() - 1;
+		boolean angles = false;
+		for (int i = 0; i < n; i++) {
+			int prev = i == 0 ? n - 1 : i - 1;
+			double ux = ring.getX(i) - ring.getX(prev), uy = ring.getY(i) - ring.getY(prev);
+			double vx = ring.getX(i + 1) - ring.getX(i), vy = ring.getY(i + 1) - ring.getY(i);
+			if ((ux == 0 && uy == 0) || (vx == 0 && vy == 0))
+				continue;
+			angles = true;
+
+			double cross = ux * vy - uy * vx;
+			if (cross > 0 || (cross == 0 && ux * vx + uy * vy < 0))
+				return Boolean.FALSE;
+		}
+		return angles ? Boolean.TRUE : null;
+	}
+
+	/* Write the convex polygons of source to convex and the concave ones to concave,
+	 * in the order of source, classifying BATCH_SIZE polygons per task on up to
+	 * 'threads' threads. Return the number of convex, concave and unclassified polygons. */
+	static int[] classify(PolygonSource source, ShapeSink convex, ShapeSink concave, int threads) throws IOException {
+		int[] counts = new int[3];
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(threads, 1));
+		try {
+			Deque<Future<Classified>> results = new ArrayDeque<Future<Classified>>();
+			List<Cell> batch;
+			while (!(batch = nextBatch(source)).isEmpty()) {
+				final List<Cell> polygons = batch;
+				results.add(executor.submit(new Callable<Classified>() {
+					@Override
+					public Classified call() {
+						return new Classified(polygons);
+					}
+				}));
+				if (results.size() >= 2 * threads)
+					results.poll().get().write(convex, concave, counts);
+			}
+			while (!results.isEmpty())
+				results.poll().get().write(convex, concave, counts);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while classifying polygons", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IllegalArgumentException)
+				throw new IOException("Invalid polygon", e.getCause());
+			throw new IllegalStateException("Classification failed", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return counts;
+	}
+
+	private static List<Cell> nextBatch(PolygonSource source) throws IOException {
+		List<Cell> batch = new ArrayList<Cell>(BATCH_SIZE);
+		Cell polygon;
+		while (batch.size() < BATCH_SIZE && (polygon = source.nextPolygon()) != null)
+			batch.add(polygon);
+		return batch;
+	}
+
+	/* The polygons of a batch split by their class. */
+	private static final class Classified {
+		private final List<Cell> convex = new ArrayList<Cell>();
+		private final List<Cell> concave = new ArrayList<Cell>();
+		private int unclassified;
+
+		Classified(List<Cell> polygons) {
+			for (Cell polygon : polygons) {
+				Boolean isConvex = convex(polygon.getGeom());
+				if (isConvex == null)
+					unclassified++;
+				else if (isConvex)
+					convex.add(polygon);
+				else
+					concave.add(polygon);
+			}
+		}
+
+		void write(ShapeSink convexSink, ShapeSink concaveSink, int[] counts) throws IOException {
+			convexSink.write(convex);
+			concaveSink.write(concave);
+			counts[0] += convex.size();
+			counts[1] += concave.size();
+			counts[2] += unclassified;
+		}
+	}
+
+	public static void main(String[] args) {
+		String[] files = new String[3];
+		int positional = 0, threads = 1;
+		String jdbcUrl = null;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if (arg.equals("--threads")) {
+					threads = Options.intValue(arg, Options.value(args, ++i, arg));
+					if (threads < 0)
+						throw new IllegalArgumentException("Option " + arg + " must not be negative");
+				}
+				else if (arg.equals("--jdbc")) {
+					jdbcUrl = Options.value(args, ++i, arg);
+				}
+				else if (arg.startsWith("--")) {
+					throw new IllegalArgumentException("Unknown option " + arg);
+				}
+				else if (positional < 3) {
+					files[positional++] = arg;
+				}
+				else {
+					throw new IllegalArgumentException("Unexpected argument " + arg);
+				}
+			}
+			if (positional < 3)
+				throw new IllegalArgumentException("Missing input or output");
+			if (jdbcUrl != null)
+				for (String table : files)
+					PostgisSource.checkTable(table);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(1);
+			return;
+		}
+		if (threads == 0)
+			threads = Runtime.getRuntime().availableProcessors();
+
+		int[] counts;
+		try {
+			if (jdbcUrl != null) {
+				try (PostgisSource source = new PostgisSource(jdbcUrl, files[0], "geom");
+						PostgisSink convex = new PostgisSink(jdbcUrl, files[1], source.srid(), false, false);
+						PostgisSink concave = new PostgisSink(jdbcUrl, files[2], source.srid(), false, false)) {
+					counts = classify(source, convex, concave, threads);
+					convex.finish();
+					concave.finish();
+				}
+			}
+			else {
+				try (PsqlDumpSource source = new PsqlDumpSource(files[0], false);
+						ShapeSink convex = new PsqlDumpSink(files[1]);
+						ShapeSink concave = new PsqlDumpSink(files[2])) {
+					counts = classify(source, convex, concave, threads);
+					convex.finish();
+					concave.finish();
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+			return;
+		}
+
+		System.out.println("Convex polygons: " + counts[0]);
+		System.out.println("Concave polygons: " + counts[1]);
+		System.out.println("Polygons not classified (empty, degenerate or not polygons): " + counts[2]);
+	}
+}
@@ -0,0 +1,97 @@
+package org.tiling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/* Quality of a rectangle combination of a shape, by which the combinations are
+ * ranked so that combination 0 is the best one and not merely the first found:
+ * - coverage: area of the rectangles over the area of the cells of the shape,
+ *   below 1 only when --desired-tiles drops rectangles
+ * - perimeter: total perimeter of the rectangles
+ * - pruning: area of the rectangles over the total area of their envelopes
+ *   expanded by a query distance of one grid step, which the index filter of
+ *   ST_DWithin and ST_Distance scans, so the higher it is the fewer candidates
+ *   the queries check per unit of area the rectangles cover
+ * The combinations are ranked by coverage, then pruning power, then perimeter,
+ * and on ties by their sorted rectangle keys on the grid of the shape, so that
+ * the ranking depends on the shape alone and not on the order the solver, or
+ * the cache filled by another shape of the pattern, returned them in. The
+ * scores are compared rounded to SCALE, so that combinations equal but for
+ * round-off are ties. The rectangles of combo are in the order of their keys
+ * too, for the same reason. */
+final class ComboScore implements Comparable<ComboScore> {
+
+	static final double SCALE = 1e9;
+
+	final List<Rect> combo;  // in the order of rectKeys
+	final double coverage;
+	final double perimeter;
+	final double pruning;
+	private final long coverageKey;
+	private final long pruningKey;
+	private final long perimeterKey;
+	private final long[] rectKeys;  // sorted keys of the rectangles
+
+	/* Score combo, whose rectangles lie on grid, of a shape whose cells cover cellsArea. */
+	ComboScore(List<Rect> combo, Grid grid, double cellsArea) {
+		this.rectKeys = new long[combo.size()];
+		for (int i = 0; i < rectKeys.length; i++)
+			rectKeys[i] = combo.get(i).key();
+		Arrays.sort(rectKeys);
+		this.combo = new ArrayList<Rect>(rectKeys.length);
+		for (long key : rectKeys)
+			this.combo.add(Rect.fromKey(key));
+
+		double step = grid.step();
+		double area = 0, perimeter = 0, expanded = 0;
+		for (Rect rect : this.combo) {
+			double width = grid.x(rect.x1()) - grid.x(rect.x0());
+			double height = grid.y(rect.y1()) - grid.y(rect.y0());
+			area += width * height;
+			perimeter += 2 * (width + height);
+			expanded += (width + 2 * step) * (height + 2 * step);
+		}
+		this.coverage = area / cellsArea;
+		this.perimeter = perimeter;
+		this.pruning = expanded > 0 ? area / expanded : 0;
+		this.coverageKey = Math.round(coverage * SCALE);
+		this.pruningKey = Math.round(pruning * SCALE);
+		this.perimeterKey = Math.round(perimeter / step * SCALE);
+	}
+
+	/* Return the scores of combos, the rectangle combinations of the cells
+	 * cells on grid, best first, only the topN best ones if topN is positive. */
+	static List<ComboScore> rank(List<List<Rect>> combos, List<Rect> cells, Grid grid, int topN) {
+		double cellsArea = 0;
+		for (Rect cell : cells)
+			cellsArea += (grid.x(cell.x1()) - grid.x(cell.x0())) * (grid.y(cell.y1()) - grid.y(cell.y0()));
+		List<ComboScore> scores = new ArrayList<ComboScore>(combos.size());
+		for (List<Rect> combo : combos)
+			scores.add(new ComboScore(combo, grid, cellsArea));
+		Collections.sort(scores);
+		if (topN > 0 && scores.size() > topN)
+			scores = new ArrayList<ComboScore>(scores.subList(0, topN));
+		return scores;
+	}
+
+	@Override
+	public int compareTo(ComboScore other) {
+		if (coverageKey != other.coverageKey)
+			return coverageKey > other.coverageKey ? -1 : 1;
+		if (pruningKey != other.pruningKey)
+			return pruningKey > other.pruningKey ? -1 : 1;
+		if (perimeterKey != other.perimeterKey)
+			return Long.compare(perimeterKey, other.perimeterKey);
+		for (int i = 0; i < rectKeys.length && i < other.rectKeys.length; i++)
+			if (rectKeys[i] != other.rectKeys[i])
+				return Long.compare(rectKeys[i], other.rectKeys[i]);
+		return rectKeys.length - other.rectKeys.length;
+	}
+
+	@Override
+	public String toString() {
+		return "coverage " + coverage + ", perimeter " + perimeter + ", pruning " + pruning + ": " + combo;
+	}
+}
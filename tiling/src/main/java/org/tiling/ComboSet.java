@@ -0,0 +1,81 @@
+package org.tiling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/* Insertion-ordered list of rectangle combinations without duplicates.
+ * Two combinations are the same if they contain the same rectangles in any
+ * order. Each combination is identified by a canonical key, the sorted packed
+ * keys of its rectangles, which is kept in a hash set, so a membership check
+ * costs a sort of the combination instead of a scan of all stored ones. */
+final class ComboSet {
+
+	private final List<List<Rect>> combos = new ArrayList<List<Rect>>();
+	private final Set<Key> keys = new HashSet<Key>();
+
+	/* Add combo if it is not contained yet.
+	 * Return true if combo was added, otherwise return false. */
+	boolean add(List<Rect> combo) {
+		Metrics.count(Metrics.Counter.CONTAINMENT_CHECKS, 1);
+		if (!keys.add(new Key(combo))) {
+			Metrics.count(Metrics.Counter.DUPLICATES, 1);
+			return false;
+		}
+		combos.add(combo);
+		return true;
+	}
+
+	boolean contains(List<Rect> combo) {
+		return keys.contains(new Key(combo));
+	}
+
+	void addAll(List<List<Rect>> newCombos) {
+		for (List<Rect> combo : newCombos)
+			add(combo);
+	}
+
+	/* Return the stored combinations in insertion order. */
+	List<List<Rect>> list() {
+		return combos;
+	}
+
+	int size() {
+		return combos.size();
+	}
+
+	boolean isEmpty() {
+		return combos.isEmpty();
+	}
+
+	void clear() {
+		combos.clear();
+		keys.clear();
+	}
+
+	/* Order-independent key of a combination. */
+	static final class Key {
+		private final long[] rects;
+		private final int hash;
+
+		Key(List<Rect> combo) {
+			rects = new long[combo.size()];
+			for (int i = 0; i < rects.length; i++)
+				rects[i] = combo.get(i).key();
+			Arrays.sort(rects);
+			hash = Arrays.hashCode(rects);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Key && ((Key) obj).hash == hash && Arrays.equals(((Key) obj).rects, rects);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}
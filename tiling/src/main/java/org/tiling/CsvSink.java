@@ -0,0 +1,50 @@
+package org.tiling;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+import com.opencsv.CSVWriter;
+
+/* Writes the generated rectangles to a csv file (shapeId, comboId, st_astext),
+ * with a column optimal too if some shapes may be tiled out of budget.
+ * All fields are enclosed in double quotes and separated by commas. */
+final class CsvSink implements ShapeSink {
+
+	private final String outputFile;
+	private final CSVWriter writer;
+	private final boolean optimal;
+
+	/* Write whether each rectangle is optimal too if optimal is true. */
+	CsvSink(String outputFile, boolean optimal) throws IOException {
+		this.outputFile = outputFile;
+		this.optimal = optimal;
+		writer = new CSVWriter(new FileWriter(outputFile));
+		writer.writeNext(optimal ? new String[] {"shapeId", "comboId", "st_astext", "optimal"}
+				: new String[] {"shapeId", "comboId", "st_astext"});
+	}
+
+	@Override
+	public void write(List<Cell> newCells) throws IOException {
+		for (Cell cell : newCells) {
+			if (optimal)
+				writer.writeNext(new String[] {cell.getShapeId(), cell.getComboId(), cell.getWKT(), String.valueOf(cell.isOptimal())});
+			else
+				writer.writeNext(new String[] {cell.getShapeId(), cell.getComboId(), cell.getWKT()});
+		}
+	}
+
+	@Override
+	public void finish() {
+		// Nothing to complete, the header is the first line
+	}
+
+	@Override
+	public void close() throws IOException {
+		// CSVWriter does not throw on write errors, it only records them
+		boolean failed = writer.checkError();
+		writer.close();
+		if (failed)
+			throw new IOException("Failed to write " + outputFile);
+	}
+}
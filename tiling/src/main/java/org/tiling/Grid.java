@@ -0,0 +1,108 @@
+package org.tiling;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/* Fixed-step axis-aligned grid of a shape, as built by mbb_grid_creator.
+ * Maps the cell envelopes of the shape to integer grid rectangles and the rectangles
+ * back to polygons. The coordinates of the grid lines are taken from the
+ * input cells, so the output polygons reuse exactly the input coordinates. */
+final class Grid {
+
+	private static final GeometryFactory factory = new GeometryFactory();
+
+	private final double originX;
+	private final double originY;
+	private final double step;
+	private double[] xs;
+	private double[] ys;
+
+	private Grid(double originX, double originY, double step) {
+		this.originX = originX;
+		this.originY = originY;
+		this.step = step;
+		this.xs = new double[0];
+		this.ys = new double[0];
+	}
+
+	/* Create the grid the given cells lie on. The step of the grid is
+	 * the size of the smallest cell and its origin the lower left corner
+	 * of the envelope of all cells. */
+	static Grid fromCells(List<Envelope> cells) {
+		if (cells.isEmpty())
+			throw new IllegalArgumentException("Cannot create a grid without cells");
+
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, step = Double.MAX_VALUE;
+		for (Envelope env : cells) {
+			minX = Math.min(minX, env.getMinX());
+			minY = Math.min(minY, env.getMinY());
+			step = Math.min(step, Math.min(env.getWidth(), env.getHeight()));
+		}
+		if (!(step > 0))
+			throw new IllegalArgumentException("Cannot create a grid from empty cells");
+
+		Grid grid = new Grid(minX, minY, step);
+		for (Envelope cell : cells)
+			grid.toRect(cell);
+		return grid;
+	}
+
+	/* Return the grid rectangle covered by env. */
+	Rect toRect(Envelope env) {
+		int x0 = index(env.getMinX(), originX);
+		int y0 = index(env.getMinY(), originY);
+		int x1 = index(env.getMaxX(), originX);
+		int y1 = index(env.getMaxY(), originY);
+		xs = line(xs, x0, env.getMinX());
+		xs = line(xs, x1, env.getMaxX());
+		ys = line(ys, y0, env.getMinY());
+		ys = line(ys, y1, env.getMaxY());
+		return Rect.of(x0, y0, x1, y1);
+	}
+
+	/* Return the polygon covered by rect. */
+	Geometry toGeometry(Rect rect) {
+		double x0 = x(rect.x0()), y0 = y(rect.y0()), x1 = x(rect.x1()), y1 = y(rect.y1());
+		Coordinate[] coords = new Coordinate[] {
+				new Coordinate(x0, y0),
+				new Coordinate(x0, y1),
+				new Coordinate(x1, y1),
+				new Coordinate(x1, y0),
+				new Coordinate(x0, y0) };
+		return factory.createPolygon(factory.createLinearRing(coords), null);
+	}
+
+	/* Size of the smallest cell. */
+	double step() {
+		return step;
+	}
+
+	double x(int index) {
+		return index < xs.length && !Double.isNaN(xs[index]) ? xs[index] : originX + index * step;
+	}
+
+	double y(int index) {
+		return index < ys.length && !Double.isNaN(ys[index]) ? ys[index] : originY + index * step;
+	}
+
+	private int index(double value, double origin) {
+		return (int) Math.round((value - origin) / step);
+	}
+
+	/* Remember the coordinate of grid line index, growing lines if needed. */
+	private static double[] line(double[] lines, int index, double value) {
+		if (index >= lines.length) {
+			int oldLength = lines.length;
+			lines = Arrays.copyOf(lines, Math.max(index + 1, 2 * oldLength));
+			Arrays.fill(lines, oldLength, lines.length, Double.NaN);
+		}
+		if (Double.isNaN(lines[index]))
+			lines[index] = value;
+		return lines;
+	}
+}
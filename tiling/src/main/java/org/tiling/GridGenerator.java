@@ -0,0 +1,172 @@
+package org.tiling;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.util.AffineTransformation;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+
+/* Computes the inner cells of whole polygons, as mbb_grid_creator and step2 do
+ * in the database, and returns them as shapes to tile.
+ * The MBB of each polygon is split into a grid of square cells, with a step of
+ * 1/steps of its longer side, and only the cells within the polygon are kept.
+ * With refine levels, the cells crossing the boundary of the polygon are split
+ * into quarters like a quadtree, keeping the quarters within the polygon and
+ * splitting the ones still crossing it again, up to levels times, so the shape
+ * is covered by coarse cells inside and finer cells along its boundary.
+ * With oriented, the grid is laid over the minimum-area oriented box of each
+ * polygon instead of its MBB, in the frame where the box is axis-aligned, and
+ * the shape keeps the transformation of its cells back to world coordinates.
+ * Polygons with fewer than lowerLimit or more than upperLimit inner cells are
+ * skipped, like step2 deletes them. Polygons whose inner cells are not
+ * contiguous, e.g. multipolygons, are kept, and Tiling tiles their parts. */
+final class GridGenerator implements ShapeSource {
+
+	static final int DEFAULT_STEPS = 10;
+
+	private static final GeometryFactory factory = new GeometryFactory();
+
+	private final PolygonSource polygons;
+	private final int lowerLimit;
+	private final int upperLimit;
+	private final int steps;
+	private final int levels;
+	private final boolean oriented;
+	private int outOfLimits;
+
+	GridGenerator(PolygonSource polygons, int lowerLimit, int upperLimit, int steps, int levels, boolean oriented) {
+		this.polygons = polygons;
+		this.lowerLimit = lowerLimit;
+		this.upperLimit = upperLimit;
+		this.steps = steps;
+		this.levels = levels;
+		this.oriented = oriented;
+	}
+
+	@Override
+	public Shape next() throws IOException {
+		Cell polygon;
+		while ((polygon = polygons.nextPolygon()) != null) {
+			List<Envelope> cells;
+			AffineTransformation frame = null;
+			try {
+				Geometry geom = polygon.getGeom();
+				OrientedBox box = oriented ? OrientedBox.of(geom) : null;
+				if (box != null) {
+					geom = box.toFrame(geom);
+					frame = box.toWorld();
+				}
+				cells = innerCells(geom, steps, levels, frame != null);
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Invalid polygon " + polygon.getShapeId(), e);
+			}
+
+			if (cells.isEmpty() || cells.size() < lowerLimit || cells.size() > upperLimit)
+				outOfLimits++;
+			else
+				return new Shape(polygon.getShapeId(), cells, frame);
+		}
+		System.out.println("\nSkipped " + outOfLimits + " polygons with less than " + lowerLimit + " or more than " 
+				+ upperLimit + " cells");
+		return null;
+	}
+
+	/* Return the cells of the MBB grid of polygon, with steps cells along its
+	 * longer side, that lie within polygon, row by row from the lower left corner.
+	 * The grid lines are accumulated step by step like in mbb_grid_creator, so
+	 * the cells have exactly the coordinates the database would give them.
+	 * The cells crossing the boundary are then refined up to levels times, their
+	 * quarters following each of them. */
+	static List<Envelope> innerCells(Geometry polygon, int steps, int levels) {
+		return innerCells(polygon, steps, levels, false);
+	}
+
+	/* As above, but with snap the grid lines are placed at multiples of the step
+	 * and the line the round-off leaves next to a side of the MBB is moved onto
+	 * it, so the cells along the sides are not lost. The oriented frames have no
+	 * database grid to match. */
+	static List<Envelope> innerCells(Geometry polygon, int steps, int levels, boolean snap) {
+		List<Envelope> cells = new ArrayList<Envelope>();
+		Envelope mbb = polygon.getEnvelopeInternal();
+		double step = Math.max(mbb.getWidth(), mbb.getHeight()) / steps;
+		if (!(step > 0))
+			return cells;
+
+		double[] xs = gridLines(mbb.getMinX(), mbb.getMaxX(), step, snap);
+		double[] ys = gridLines(mbb.getMinY(), mbb.getMaxY(), step, snap);
+		PreparedGeometry prepared = PreparedGeometryFactory.prepare(polygon);
+		for (int j = 0; j + 1 < ys.length; j++) {
+			for (int i = 0; i + 1 < xs.length; i++) {
+				Envelope cell = new Envelope(xs[i], xs[i + 1], ys[j], ys[j + 1]);
+				if (mbb.contains(cell) && prepared.contains(toPolygon(cell)))
+					cells.add(cell);
+				else if (levels > 0)
+					refine(prepared, cell, levels, cells);
+			}
+		}
+		return cells;
+	}
+
+	/* Return the grid lines from min, one for every cell starting at most at max
+	 * and one more ending the last cell. */
+	private static double[] gridLines(double min, double max, double step, boolean snap) {
+		double tolerance = OrientedBox.SNAP * (max - min);
+		List<Double> lines = new ArrayList<Double>();
+		for (double line = min; ; ) {
+			lines.add(line);
+			if (line > max)
+				break;
+			if (snap)
+				line = OrientedBox.snap(min + lines.size() * step, min, max, tolerance);
+			else
+				line += step;
+		}
+		double[] array = new double[lines.size()];
+		for (int i = 0; i < array.length; i++)
+			array[i] = lines.get(i);
+		return array;
+	}
+
+	/* Add to cells the quarters of cell within polygon, and split the quarters
+	 * crossing its boundary again, down to levels more times. The quarters are
+	 * cut at the middle of cell, so the quarters of neighbouring cells share
+	 * the coordinates of their common edges. */
+	private static void refine(PreparedGeometry polygon, Envelope cell, int levels, List<Envelope> cells) {
+		if (!polygon.intersects(toPolygon(cell)))
+			return;
+		double midX = (cell.getMinX() + cell.getMaxX()) / 2;
+		double midY = (cell.getMinY() + cell.getMaxY()) / 2;
+		Envelope[] quarters = new Envelope[] {
+				new Envelope(cell.getMinX(), midX, cell.getMinY(), midY),
+				new Envelope(midX, cell.getMaxX(), cell.getMinY(), midY),
+				new Envelope(cell.getMinX(), midX, midY, cell.getMaxY()),
+				new Envelope(midX, cell.getMaxX(), midY, cell.getMaxY()) };
+		for (Envelope quarter : quarters) {
+			if (polygon.contains(toPolygon(quarter)))
+				cells.add(quarter);
+			else if (levels > 1)
+				refine(polygon, quarter, levels - 1, cells);
+		}
+	}
+
+	private static Geometry toPolygon(Envelope cell) {
+		Coordinate[] coords = new Coordinate[] {
+				new Coordinate(cell.getMinX(), cell.getMinY()),
+				new Coordinate(cell.getMinX(), cell.getMaxY()),
+				new Coordinate(cell.getMaxX(), cell.getMaxY()),
+				new Coordinate(cell.getMaxX(), cell.getMinY()),
+				new Coordinate(cell.getMinX(), cell.getMinY()) };
+		return factory.createPolygon(factory.createLinearRing(coords), null);
+	}
+
+	@Override
+	public void close() throws IOException {
+		polygons.close();
+	}
+}
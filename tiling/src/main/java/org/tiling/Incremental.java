@@ -0,0 +1,264 @@
+package org.tiling;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.util.AffineTransformation;
+
+/* Reuses the rectangles of the previous run for the shapes whose cells have not
+ * changed since, so that only added and changed shapes are tiled again.
+ * Every run with a manifest file saves in it the hash of the cells of each shape
+ * and the number of rows written for it, in the order of the output. The next run
+ * hashes the cells of each shape again, and copies the rows of a shape with the
+ * same hash from the previous output, with their combination ids, instead of
+ * tiling it. Shapes missing from the input are dropped. The previous output is
+ * read forward only, so the shapes must come in the same order in both runs,
+ * as with ORDER BY id, otherwise the shapes out of order are tiled again.
+ * Shapes tiled out of budget are saved without a hash, so they are always tiled again.
+ * The manifest is only used if it was saved with the same settings. */
+final class Incremental implements Closeable {
+
+	private static final int MAGIC = 0x544d4631; // "TMF1"
+
+	private static final Comparator<Envelope> CELL_ORDER = new Comparator<Envelope>() {
+		@Override
+		public int compare(Envelope a, Envelope b) {
+			int c = Double.compare(a.getMinY(), b.getMinY());
+			if (c == 0)
+				c = Double.compare(a.getMinX(), b.getMinX());
+			if (c == 0)
+				c = Double.compare(a.getMaxY(), b.getMaxY());
+			if (c == 0)
+				c = Double.compare(a.getMaxX(), b.getMaxX());
+			return c;
+		}
+	};
+
+	/* Shape of a manifest, at the given position of the output. */
+	private static final class Entry {
+		final byte[] hash;
+		final long firstRow;
+		final int rows;
+
+		Entry(byte[] hash, long firstRow, int rows) {
+			this.hash = hash;
+			this.firstRow = firstRow;
+			this.rows = rows;
+		}
+	}
+
+	private final String manifestFile;
+	private final String settings;
+	private final Map<String, Entry> previous = new HashMap<String, Entry>();
+	private final String previousOutput;
+	private BinaryReader binary;
+	private CSVReader csv;
+	private long row;
+
+	// Manifest of this run, with the rows of the last shapes still to come from written
+	private final List<String> ids = new ArrayList<String>();
+	private final List<byte[]> hashes = new ArrayList<byte[]>();
+	private final List<Integer> rows = new ArrayList<Integer>();
+	private final Deque<Integer> pending = new ArrayDeque<Integer>();
+	private int reused;
+	private int changed;
+
+	/* Keep a manifest in manifestFile, or none if it is null, and reuse the rows of
+	 * previousOutput, if not null, for the unchanged shapes of the manifest saved in
+	 * manifestFile by the previous run. Settings are the options the rows depend on. */
+	Incremental(String manifestFile, String previousOutput, String settings) throws IOException {
+		this.manifestFile = manifestFile;
+		this.settings = settings;
+		this.previousOutput = previousOutput;
+		if (previousOutput == null || manifestFile == null)
+			return;
+		if (!new File(manifestFile).exists()) {
+			System.out.println("No manifest " + manifestFile + ", tiling every shape");
+			return;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(manifestFile)))) {
+			if (in.readInt() != MAGIC)
+				throw new IOException("Not a tiling manifest file: " + manifestFile);
+			if (!in.readUTF().equals(settings)) {
+				System.out.println("Ignoring manifest " + manifestFile + " saved with different settings, tiling every shape");
+				return;
+			}
+			int count = in.readInt();
+			long firstRow = 0;
+			for (int e = 0; e < count; e++) {
+				String id = in.readUTF();
+				byte[] hash = new byte[in.readUnsignedByte()];
+				in.readFully(hash);
+				int shapeRows = in.readInt();
+				previous.put(id, new Entry(hash, firstRow, shapeRows));
+				firstRow += shapeRows;
+			}
+		}
+
+		if (BinaryReader.isBinary(previousOutput)) {
+			binary = new BinaryReader(previousOutput);
+		}
+		else {
+			csv = new CSVReader(new FileReader(previousOutput));
+			csv.skip(1); // header
+		}
+	}
+
+	boolean enabled() {
+		return manifestFile != null;
+	}
+
+	/* Return the rows of shape in the previous output if its cells are unchanged,
+	 * or null if it has to be tiled. Shapes must be passed in the order of the
+	 * output, and the rows written for each must then be passed to written. */
+	List<Cell> reuse(Shape shape) throws IOException {
+		if (!enabled())
+			return null;
+		byte[] hash = hash(shape.cells, shape.frame);
+		ids.add(shape.id);
+		hashes.add(hash);
+		pending.add(rows.size());
+		rows.add(0);
+
+		Entry entry = previous.get(shape.id);
+		if (entry == null)
+			return null;
+		if (!Arrays.equals(entry.hash, hash) || entry.firstRow < row) {
+			changed++;
+			return null;
+		}
+		reused++;
+		return read(shape.id, entry);
+	}
+
+	/* Record the rows written for the next shape passed to reuse. */
+	void written(List<Cell> shapeRows) {
+		if (!enabled())
+			return;
+		int index = pending.poll();
+		rows.set(index, shapeRows.size());
+		if (!shapeRows.isEmpty() && !shapeRows.get(0).isOptimal())
+			hashes.set(index, new byte[0]);
+	}
+
+	private List<Cell> read(String shapeId, Entry entry) throws IOException {
+		List<Cell> cells = new ArrayList<Cell>(entry.rows);
+		if (binary != null)
+			row = entry.firstRow;
+		try {
+			for (; row < entry.firstRow + entry.rows; row++) {
+				Cell cell;
+				if (binary != null) {
+					if (row >= binary.size())
+						throw new IOException("Previous output " + previousOutput + " is shorter than its manifest");
+					cell = binary.cell(row);
+				}
+				else {
+					String[] line = csv.readNext();
+					if (line == null)
+						throw new IOException("Previous output " + previousOutput + " is shorter than its manifest");
+					if (line.length < 3)
+						throw new IOException("Missing column on line " + csv.getLinesRead() + " of " + previousOutput);
+					cell = new Cell(line[0], line[1], null, line[2]);
+				}
+				if (row < entry.firstRow)
+					continue;
+				if (!cell.getShapeId().equals(shapeId))
+					throw new IOException("Previous output " + previousOutput + " does not match its manifest at shape " + shapeId);
+				cells.add(cell);
+			}
+		} catch (CsvValidationException e) {
+			throw new IOException("Invalid line " + csv.getLinesRead() + " of " + previousOutput, e);
+		}
+		return cells;
+	}
+
+	/* MD5 of the bounds of the cells, in an order that does not depend on theirs,
+	 * and of the transformation of the cells to world coordinates if not null. */
+	static byte[] hash(List<Envelope> cells, AffineTransformation frame) {
+		List<Envelope> sorted = new ArrayList<Envelope>(cells);
+		Collections.sort(sorted, CELL_ORDER);
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("MD5 is not available", e);
+		}
+		byte[] bytes = new byte[32];
+		for (Envelope cell : sorted) {
+			putLong(bytes, 0, Double.doubleToLongBits(cell.getMinX()));
+			putLong(bytes, 8, Double.doubleToLongBits(cell.getMinY()));
+			putLong(bytes, 16, Double.doubleToLongBits(cell.getMaxX()));
+			putLong(bytes, 24, Double.doubleToLongBits(cell.getMaxY()));
+			digest.update(bytes);
+		}
+		if (frame != null) {
+			for (double entry : frame.getMatrixEntries()) {
+				putLong(bytes, 0, Double.doubleToLongBits(entry));
+				digest.update(bytes, 0, 8);
+			}
+		}
+		return digest.digest();
+	}
+
+	private static void putLong(byte[] bytes, int offset, long value) {
+		for (int i = 7; i >= 0; i--, value >>>= 8)
+			bytes[offset + i] = (byte) value;
+	}
+
+	/* Save the manifest of this run, with the shapes in the order they were written. */
+	void save() throws IOException {
+		if (!enabled())
+			return;
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(manifestFile)))) {
+			out.writeInt(MAGIC);
+			out.writeUTF(settings);
+			out.writeInt(ids.size());
+			for (int i = 0; i < ids.size(); i++) {
+				out.writeUTF(ids.get(i));
+				out.writeByte(hashes.get(i).length);
+				out.write(hashes.get(i));
+				out.writeInt(rows.get(i));
+			}
+		}
+	}
+
+	/* Print the number of shapes reused, tiled again and dropped since the previous run. */
+	void printSummary() {
+		if (previous.isEmpty())
+			return;
+		int added = ids.size() - reused - changed;
+		System.out.println("\nReused " + reused + " unchanged shapes, tiled " + changed + " changed and " + added
+				+ " added shapes, dropped " + (previous.size() - reused - changed) + " removed shapes");
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (csv != null)
+			csv.close();
+	}
+}
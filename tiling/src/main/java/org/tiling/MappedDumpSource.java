@@ -0,0 +1,316 @@
+package org.tiling;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/* Reads the same psql dumps as PsqlDumpSource (id | cell [| st_astext]) from the
+ * memory-mapped file, scanning the bytes of each row in place instead of
+ * decoding the rows into strings: the hex WKB of the cells is decoded straight
+ * from the mapped bytes into their envelopes, and only the id of each shape,
+ * and the WKT column with parseWKT, become strings.
+ * The file is mapped in segments of at most SEGMENT_BYTES, each ending at the
+ * end of a line. A source reads a range of the file, and split() cuts its range
+ * at the first rows of shapes, found by comparing the ids of a few rows around
+ * each cut, into ranges that several threads can read on their own, as
+ * ParallelDumpSource does.
+ * As a PolygonSource, every row is a whole polygon (id | geom [| st_astext]) instead. */
+final class MappedDumpSource implements ShapeSource, PolygonSource {
+
+	static final int SEGMENT_BYTES = 1 << 30;
+
+	private static final int HEADER_LINES = 2;
+
+	private final String file;
+	private final ByteBuffer[] segments;
+	private final long[] bases;  // offset in the file of the first byte of each segment
+	private final boolean parseWKT;
+	private final long start;
+	private final long end;
+
+	// Start of the next line, in segment
+	private int segment;
+	private int position;
+
+	// Current row, in segment rowSegment, or none at the end of the range or the row count footer
+	private boolean hasRow;
+	private int rowSegment;
+	private long rowOffset;
+	private final int[] fields = new int[6];  // start and end of the id, cell and WKT columns
+	private final int[] bars = new int[3];    // separators after them
+
+	/* Map inputFile and read its rows after the header. */
+	MappedDumpSource(String inputFile, boolean parseWKT) throws IOException {
+		List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+		List<Long> bases = new ArrayList<Long>();
+		long size;
+		try (RandomAccessFile raf = new RandomAccessFile(inputFile, "r"); FileChannel channel = raf.getChannel()) {
+			size = channel.size();
+			long base = 0;
+			while (base < size) {
+				long length = Math.min(SEGMENT_BYTES, size - base);
+				ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, base, length);
+				int limit = (int) length;
+				if (base + length < size) {
+					// The next segment starts with the line this one would cut
+					while (limit > 0 && mapped.get(limit - 1) != '\n')
+						limit--;
+					if (limit == 0)
+						throw new IOException("Line longer than " + SEGMENT_BYTES + " bytes at byte " + base + " of " + inputFile);
+					mapped.limit(limit);
+				}
+				segments.add(mapped);
+				bases.add(base);
+				base += limit;
+			}
+		}
+		this.file = inputFile;
+		this.segments = segments.toArray(new ByteBuffer[segments.size()]);
+		this.bases = new long[bases.size()];
+		for (int i = 0; i < this.bases.length; i++)
+			this.bases[i] = bases.get(i);
+		this.parseWKT = parseWKT;
+		for (int i = 0; i < HEADER_LINES && !atEnd(); i++)
+			skipLine();
+		this.start = offset();
+		this.end = Math.max(start, footerStart(size));
+		readRow();
+	}
+
+	/* Source of the rows of source in [start, end), which must be the first rows of shapes. */
+	private MappedDumpSource(MappedDumpSource source, long start, long end) throws IOException {
+		this.file = source.file;
+		this.segments = source.segments;
+		this.bases = source.bases;
+		this.parseWKT = source.parseWKT;
+		this.start = start;
+		this.end = end;
+		seek(start);
+		readRow();
+	}
+
+	/* Number of bytes of the rows of this source. */
+	long size() {
+		return end - start;
+	}
+
+	/* Split the rows of this source, from its first one, into up to 'parts'
+	 * consecutive sources of about the same size, each starting at the first
+	 * row of a shape. The rows of a shape must be consecutive, as with ORDER BY id. */
+	List<MappedDumpSource> split(int parts) throws IOException {
+		List<MappedDumpSource> sources = new ArrayList<MappedDumpSource>();
+		MappedDumpSource scanner = new MappedDumpSource(this, start, end);
+		long from = start;
+		for (int k = 1; k <= parts; k++) {
+			long to = k == parts ? end : scanner.shapeStart(start + (end - start) / parts * k);
+			if (to > from) {
+				sources.add(new MappedDumpSource(this, from, to));
+				from = to;
+			}
+		}
+		return sources;
+	}
+
+	/* Return the offset of the row count footer at the end of the file, which
+	 * only blank lines may follow, or size if there is none. */
+	private long footerStart(long size) {
+		if (segments.length == 0)
+			return size;
+		int last = segments.length - 1;
+		ByteBuffer buffer = segments[last];
+		int lineEnd = trimEnd(buffer, 0, buffer.limit());
+		int lineStart = lineEnd;
+		while (lineStart > 0 && buffer.get(lineStart - 1) != '\n')
+			lineStart--;
+		return isFooter(buffer, trimStart(buffer, lineStart, lineEnd), lineEnd) ? bases[last] + lineStart : size;
+	}
+
+	/* Return the offset of the first row at or after offset whose id differs
+	 * from the id of the row before it, or end if the rows end first. */
+	private long shapeStart(long offset) throws IOException {
+		if (offset <= start)
+			return start;
+		// The row the offset falls in, or the row ending just before it
+		seek(offset - 1);
+		while (position > 0 && segments[segment].get(position - 1) != '\n')
+			position--;
+		if (!readRow())
+			return end;
+		int previousSegment = rowSegment, previousStart = fields[0], previousEnd = fields[1];
+		while (readRow()) {
+			if (rowOffset >= offset && !sameId(previousSegment, previousStart, previousEnd))
+				return rowOffset;
+			previousSegment = rowSegment;
+			previousStart = fields[0];
+			previousEnd = fields[1];
+		}
+		return end;
+	}
+
+	@Override
+	public Shape next() throws IOException {
+		if (!hasRow)
+			return null;
+
+		String shapeId = field(0);
+		int idSegment = rowSegment, idStart = fields[0], idEnd = fields[1];
+		List<Envelope> cells = new ArrayList<Envelope>();
+		do {
+			try {
+				if (parseWKT)
+					cells.add(CellDecoder.readWKT(field(2)).getEnvelopeInternal());
+				else
+					cells.add(CellDecoder.envelopeOfWKB(segments[rowSegment], fields[2], fields[3]));
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Invalid cell of shape " + shapeId + " at byte " + rowOffset + " of " + file, e);
+			}
+			readRow();
+		} while (hasRow && sameId(idSegment, idStart, idEnd));
+		return new Shape(shapeId, cells);
+	}
+
+	@Override
+	public Cell nextPolygon() throws IOException {
+		if (!hasRow)
+			return null;
+		Cell polygon = parseWKT ? new Cell(field(0), (String) null, field(2)) : new Cell(field(0), field(1), (String) null);
+		readRow();
+		return polygon;
+	}
+
+	/* Read the row of the next line into fields, and return false instead
+	 * at the end of the range or of the file, or at the row count footer. */
+	private boolean readRow() throws IOException {
+		hasRow = false;
+		if (atEnd() || offset() >= end)
+			return false;
+		ByteBuffer buffer = segments[segment];
+		rowSegment = segment;
+		rowOffset = offset();
+		int lineStart = position;
+
+		// A single pass over the line, for its end and the separators of the first three columns
+		int limit = buffer.limit(), separators = 0, lineEnd = lineStart;
+		for (; lineEnd < limit; lineEnd++) {
+			byte b = buffer.get(lineEnd);
+			if (b == '\n')
+				break;
+			if (b == '|' && separators < 3)
+				bars[separators++] = lineEnd;
+		}
+		moveAfter(lineEnd);
+
+		int columns = Math.min(separators + 1, 3), fieldStart = lineStart;
+		for (int c = 0; c < columns; c++) {
+			int fieldEnd = c < separators ? bars[c] : lineEnd;
+			fields[2 * c] = trimStart(buffer, fieldStart, fieldEnd);
+			fields[2 * c + 1] = trimEnd(buffer, fields[2 * c], fieldEnd);
+			fieldStart = fieldEnd + 1;
+		}
+		if (columns == 1 && isFooter(buffer, fields[0], fields[1]))
+			return false;
+		if (columns < (parseWKT ? 3 : 2))
+			throw new IOException("Missing cell column at byte " + rowOffset + " of " + file);
+		hasRow = true;
+		return true;
+	}
+
+	/* Move past the next line, e.g. of the header. */
+	private void skipLine() {
+		ByteBuffer buffer = segments[segment];
+		int lineEnd = position;
+		while (lineEnd < buffer.limit() && buffer.get(lineEnd) != '\n')
+			lineEnd++;
+		moveAfter(lineEnd);
+	}
+
+	/* Move to the start of the line after the one ending at lineEnd in the segment. */
+	private void moveAfter(int lineEnd) {
+		int limit = segments[segment].limit();
+		position = lineEnd < limit ? lineEnd + 1 : lineEnd;
+		if (position == limit && segment + 1 < segments.length) {
+			segment++;
+			position = 0;
+		}
+	}
+
+	private boolean atEnd() {
+		return segments.length == 0 || (segment == segments.length - 1 && position >= segments[segment].limit());
+	}
+
+	private long offset() {
+		return segments.length == 0 ? 0 : bases[segment] + position;
+	}
+
+	private void seek(long offset) {
+		segment = 0;
+		while (segment + 1 < segments.length && bases[segment + 1] <= offset)
+			segment++;
+		position = segments.length == 0 ? 0 : (int) (offset - bases[segment]);
+	}
+
+	/* Return true if the id of the current row equals the id in segment idSegment at [idStart, idEnd). */
+	private boolean sameId(int idSegment, int idStart, int idEnd) {
+		if (fields[1] - fields[0] != idEnd - idStart)
+			return false;
+		ByteBuffer row = segments[rowSegment], id = segments[idSegment];
+		for (int i = 0; i < idEnd - idStart; i++)
+			if (row.get(fields[0] + i) != id.get(idStart + i))
+				return false;
+		return true;
+	}
+
+	private String field(int column) {
+		ByteBuffer buffer = segments[rowSegment];
+		byte[] bytes = new byte[fields[2 * column + 1] - fields[2 * column]];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = buffer.get(fields[2 * column] + i);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/* The characters of buffer[start, end), e.g. hex WKB. */
+	static String ascii(ByteBuffer buffer, int start, int end) {
+		char[] chars = new char[end - start];
+		for (int i = 0; i < chars.length; i++)
+			chars[i] = (char) (buffer.get(start + i) & 0xFF);
+		return new String(chars);
+	}
+
+	// Spaces and control characters, as String.trim() removes them
+	private static int trimStart(ByteBuffer buffer, int from, int to) {
+		while (from < to && (buffer.get(from) & 0xFF) <= ' ')
+			from++;
+		return from;
+	}
+
+	private static int trimEnd(ByteBuffer buffer, int from, int to) {
+		while (to > from && (buffer.get(to - 1) & 0xFF) <= ' ')
+			to--;
+		return to;
+	}
+
+	/* Return true if buffer[from, to) is the row count psql prints after the rows, e.g. (12 rows) or (1 row). */
+	private static boolean isFooter(ByteBuffer buffer, int from, int to) {
+		int i = from;
+		if (i >= to || buffer.get(i++) != '(')
+			return false;
+		int digits = i;
+		while (i < to && buffer.get(i) >= '0' && buffer.get(i) <= '9')
+			i++;
+		if (i == digits || i >= to || buffer.get(i++) != ' ')
+			return false;
+		String rest = ascii(buffer, i, to);
+		return rest.equals("row)") || rest.equals("rows)");
+	}
+
+	@Override
+	public void close() {
+		// The mapping is released with the buffers, and the parts share them
+	}
+}
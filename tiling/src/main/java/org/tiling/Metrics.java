@@ -0,0 +1,319 @@
+package org.tiling;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/* Counters and histograms of the phases of a run, with the slowest shapes.
+ * Every thread records into its own State, so the hot paths only update plain
+ * longs of the thread, and the states are summed when reported. Recording is
+ * off unless enabled is set before the run, so that it costs a field read.
+ * Histograms have a bucket per power of two, of nanoseconds for the timings. */
+final class Metrics {
+
+	enum Counter {
+		SHAPES("shapes", "Shapes tiled"),
+		CELLS("cells", "Cells of the shapes tiled"),
+		CACHED_SHAPES("cached_shapes", "Shapes whose combinations were taken from the cache"),
+		REUSED_SHAPES("reused_shapes", "Shapes copied from the previous output"),
+		BUDGET_EXCEEDED("budget_exceeded_shapes", "Shapes whose merge rounds ran out of budget"),
+		SPLIT_SHAPES("split_shapes", "Shapes whose cells were not contiguous, tiled as separate parts"),
+		COMBINE_ROUNDS("combine_rounds", "Rounds of combineTiles in generateRectangles"),
+		CONTAINMENT_CHECKS("containment_checks", "Combinations checked against a combination set"),
+		DUPLICATES("duplicates", "Combinations found in the set already"),
+		ROWS("rows", "Rows written");
+
+		final String name;
+		final String help;
+
+		Counter(String name, String help) {
+			this.name = name;
+			this.help = help;
+		}
+	}
+
+	enum Histogram {
+		PARSE("parse_seconds", true, "Reading the cells of a shape"),
+		CONTIGUITY("contiguity_seconds", true, "Contiguity check of the cells of a shape"),
+		COMBINE_ROUND("combine_round_seconds", true, "Round of combineTiles in generateRectangles"),
+		ROUND_COMBINATIONS("round_combinations", false, "Combinations enumerated by a round of combineTiles"),
+		SOLVE("solve_seconds", true, "Solving a shape missing from the cache"),
+		SHAPE("shape_seconds", true, "Tiling a shape, from its cells to its rows"),
+		WRITE("write_seconds", true, "Writing the rows of a shape");
+
+		final String name;
+		final boolean nanos;
+		final String help;
+
+		Histogram(String name, boolean nanos, String help) {
+			this.name = name;
+			this.nanos = nanos;
+			this.help = help;
+		}
+	}
+
+	static final int SLOWEST = 10;
+	private static final int BUCKETS = 64;
+
+	static volatile boolean enabled = false;
+
+	private static HttpServer server;  // of serve(), if running
+	private static final List<State> states = new ArrayList<State>();
+	private static final ThreadLocal<State> state = new ThreadLocal<State>() {
+		@Override
+		protected State initialValue() {
+			State s = new State();
+			synchronized (states) {
+				states.add(s);
+			}
+			return s;
+		}
+	};
+
+	private Metrics() {
+	}
+
+	/* Shape and the time it took to tile it. */
+	static final class Slow implements Comparable<Slow> {
+		final String shapeId;
+		final int cells;
+		final long nanos;
+
+		Slow(String shapeId, int cells, long nanos) {
+			this.shapeId = shapeId;
+			this.cells = cells;
+			this.nanos = nanos;
+		}
+
+		@Override
+		public int compareTo(Slow other) {
+			return Long.compare(nanos, other.nanos);
+		}
+	}
+
+	/* Metrics of one thread, or the sum of all of them. */
+	private static final class State {
+		final long[] counters = new long[Counter.values().length];
+		final long[][] buckets = new long[Histogram.values().length][BUCKETS];
+		final long[] counts = new long[Histogram.values().length];
+		final long[] sums = new long[Histogram.values().length];
+		final long[] max = new long[Histogram.values().length];
+		// Least slow of the slowest shapes first
+		final PriorityQueue<Slow> slowest = new PriorityQueue<Slow>();
+
+		synchronized List<Slow> slowest() {
+			return new ArrayList<Slow>(slowest);
+		}
+
+		synchronized void addShape(Slow shape) {
+			if (slowest.size() < SLOWEST) {
+				slowest.add(shape);
+			}
+			else if (slowest.peek().nanos < shape.nanos) {
+				slowest.poll();
+				slowest.add(shape);
+			}
+		}
+	}
+
+	/* Return the time to pass to stop, or 0 if recording is off. */
+	static long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/* Record the time since start in histogram. */
+	static void stop(Histogram histogram, long start) {
+		if (enabled)
+			record(histogram, System.nanoTime() - start);
+	}
+
+	static void record(Histogram histogram, long value) {
+		if (!enabled)
+			return;
+		State s = state.get();
+		int h = histogram.ordinal();
+		s.buckets[h][bucket(value)]++;
+		s.counts[h]++;
+		s.sums[h] += value;
+		s.max[h] = Math.max(s.max[h], value);
+	}
+
+	static void count(Counter counter, long n) {
+		if (enabled)
+			state.get().counters[counter.ordinal()] += n;
+	}
+
+	/* Record that shape took nanos to tile. */
+	static void shape(String shapeId, int cells, long nanos) {
+		if (!enabled)
+			return;
+		record(Histogram.SHAPE, nanos);
+		State s = state.get();
+		s.counters[Counter.SHAPES.ordinal()]++;
+		s.counters[Counter.CELLS.ordinal()] += cells;
+		s.addShape(new Slow(shapeId, cells, nanos));
+	}
+
+	/* Bucket b holds the values up to 2^b - 1, i.e. of b significant bits. */
+	private static int bucket(long value) {
+		return value <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+	}
+
+	private static long upperBound(int bucket) {
+		return bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+	}
+
+	/* Sum of the states of all threads so far. */
+	private static State total() {
+		State total = new State();
+		synchronized (states) {
+			for (State s : states) {
+				for (int c = 0; c < total.counters.length; c++)
+					total.counters[c] += s.counters[c];
+				for (int h = 0; h < total.counts.length; h++) {
+					for (int b = 0; b < BUCKETS; b++)
+						total.buckets[h][b] += s.buckets[h][b];
+					total.counts[h] += s.counts[h];
+					total.sums[h] += s.sums[h];
+					total.max[h] = Math.max(total.max[h], s.max[h]);
+				}
+				for (Slow shape : s.slowest())
+					total.addShape(shape);
+			}
+		}
+		return total;
+	}
+
+	/* Upper bound of the bucket of the q quantile of histogram h. */
+	private static long quantile(State s, int h, double q) {
+		long rank = (long) Math.ceil(q * s.counts[h]), seen = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			seen += s.buckets[h][b];
+			if (seen >= rank && seen > 0)
+				return Math.min(upperBound(b), s.max[h]);
+		}
+		return 0;
+	}
+
+	private static String value(Histogram histogram, long value) {
+		return histogram.nanos ? String.valueOf(value / 1e9) : String.valueOf(value);
+	}
+
+	/* Summary of the run as a JSON object: the counters, the count, sum, max and
+	 * approximate quantiles of every histogram, and the slowest shapes. */
+	static String json() {
+		State s = total();
+		StringBuilder json = new StringBuilder("{\n  \"counters\": {");
+		for (Counter counter : Counter.values())
+			json.append(counter.ordinal() == 0 ? "\n" : ",\n").append("    \"").append(counter.name).append("\": ")
+					.append(s.counters[counter.ordinal()]);
+		json.append("\n  },\n  \"histograms\": {");
+		for (Histogram histogram : Histogram.values()) {
+			int h = histogram.ordinal();
+			json.append(h == 0 ? "\n" : ",\n").append("    \"").append(histogram.name).append("\": {")
+					.append("\"count\": ").append(s.counts[h])
+					.append(", \"sum\": ").append(value(histogram, s.sums[h]))
+					.append(", \"max\": ").append(value(histogram, s.max[h]))
+					.append(", \"p50\": ").append(value(histogram, quantile(s, h, 0.5)))
+					.append(", \"p90\": ").append(value(histogram, quantile(s, h, 0.9)))
+					.append(", \"p99\": ").append(value(histogram, quantile(s, h, 0.99))).append("}");
+		}
+		json.append("\n  },\n  \"slowest_shapes\": [");
+		List<Slow> slowest = s.slowest();
+		Collections.sort(slowest, Collections.reverseOrder());
+		for (int i = 0; i < slowest.size(); i++) {
+			Slow shape = slowest.get(i);
+			json.append(i == 0 ? "\n" : ",\n").append("    {\"shape_id\": \"").append(escape(shape.shapeId))
+					.append("\", \"cells\": ").append(shape.cells)
+					.append(", \"seconds\": ").append(shape.nanos / 1e9).append("}");
+		}
+		return json.append("\n  ]\n}\n").toString();
+	}
+
+	private static String escape(String text) {
+		StringBuilder escaped = new StringBuilder();
+		for (char c : text.toCharArray()) {
+			if (c == '"' || c == '\\')
+				escaped.append('\\').append(c);
+			else if (c < 0x20)
+				escaped.append(String.format("\\u%04x", (int) c));
+			else
+				escaped.append(c);
+		}
+		return escaped.toString();
+	}
+
+	/* The metrics in the Prometheus text format, the histograms with cumulative
+	 * buckets up to the largest value recorded. */
+	static String prometheus() {
+		State s = total();
+		StringBuilder text = new StringBuilder();
+		for (Counter counter : Counter.values()) {
+			String name = "tiling_" + counter.name + "_total";
+			text.append("# HELP ").append(name).append(' ').append(counter.help).append('\n');
+			text.append("# TYPE ").append(name).append(" counter\n");
+			text.append(name).append(' ').append(s.counters[counter.ordinal()]).append('\n');
+		}
+		for (Histogram histogram : Histogram.values()) {
+			int h = histogram.ordinal();
+			String name = "tiling_" + histogram.name;
+			text.append("# HELP ").append(name).append(' ').append(histogram.help).append('\n');
+			text.append("# TYPE ").append(name).append(" histogram\n");
+			long cumulative = 0;
+			for (int b = 0; b < BUCKETS && cumulative < s.counts[h]; b++) {
+				cumulative += s.buckets[h][b];
+				text.append(name).append("_bucket{le=\"").append(value(histogram, upperBound(b))).append("\"} ")
+						.append(cumulative).append('\n');
+			}
+			text.append(name).append("_bucket{le=\"+Inf\"} ").append(s.counts[h]).append('\n');
+			text.append(name).append("_sum ").append(value(histogram, s.sums[h])).append('\n');
+			text.append(name).append("_count ").append(s.counts[h]).append('\n');
+		}
+		return text.toString();
+	}
+
+	static void writeJson(String file) throws IOException {
+		try (Writer writer = new FileWriter(file)) {
+			writer.write(json());
+		}
+	}
+
+	/* Serve the metrics in the Prometheus text format at http://localhost:port/metrics
+	 * until stopServing() is called. */
+	static synchronized void serve(int port) throws IOException {
+		stopServing();
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/metrics", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = prometheus().getBytes(Charset.forName("UTF-8"));
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			}
+		});
+		server.start();
+	}
+
+	/* Stop serving the metrics, if they are served. */
+	static synchronized void stopServing() {
+		if (server != null) {
+			server.stop(0);
+			server = null;
+		}
+	}
+}
@@ -0,0 +1,278 @@
+package org.tiling;
+
+import java.io.File;
+
+/* Command line options of Tiling:
+ * <input file> <output file> [--threads <n>] [--parse wkb|wkt] [--mmap] [--solver merge|partition]
+ *     [--cache-size <n>] [--cache-file <file>] [--cache-symmetry] [--jdbc <url>]
+ *     [--polygons] [--lower-limit <n>] [--upper-limit <n>] [--resolution <n>] [--refine <levels>] [--oriented]
+ *     [--desired-tiles <n>] [--top-n <n>] [--format csv|rows|columns]
+ *     [--manifest <file>] [--previous <file>] [--verbose] [--metrics <file>] [--metrics-port <port>]
+ *     [--time-budget <ms>] [--combo-budget <n>] [--memory-budget <mb>] [--shard <i>/<n>]
+ * --threads --> Number of shapes tiled in parallel, 0 for one per available core (default 1)
+ * --parse --> Input column the cells are decoded from, hex WKB or WKT (default wkb)
+ * --mmap --> Memory-map the input file and scan its rows in place, on as many threads
+ *            as --threads (MappedDumpSource), instead of reading it with OpenCSV
+ * --solver --> Strategy computing the rectangles, all combinations of the iterative 
+ *              merge rounds or a single minimum rectangle partition (default merge)
+ * --cache-size --> Number of tiled shape patterns kept in memory, 0 for no cache 
+ *                  (default 0, or DEFAULT_CACHE_SIZE with --cache-file)
+ * --cache-file --> File the cache is loaded from at start and saved to at the end
+ * --cache-symmetry --> Share cached tilings between rotated and mirrored patterns
+ * --jdbc --> Read the cells from the input table (id, cell) and write the rectangles
+ *            into the output table (id, combo, geom) of this PostGIS database, 
+ *            instead of psql dump and csv files
+ * --polygons --> The input holds whole polygons (id, geom) instead of their inner cells,
+ *                which are computed like mbb_grid_creator and step2 do
+ * --lower-limit, --upper-limit --> Polygons with fewer or more inner cells are skipped, 
+ *                                  with --polygons (default 4 and 12)
+ * --resolution --> Number of grid cells along the longer side of the MBB of each polygon,
+ *                  with --polygons (default 10, as mbb_grid_creator)
+ * --refine --> Number of times the cells crossing the boundary of each polygon are split
+ *              into quarters, with --polygons (default 0)
+ * --oriented --> Lay the grid of each polygon over its minimum-area oriented bounding box 
+ *                instead of its MBB, and rotate the rectangles back, with --polygons
+ * --desired-tiles --> Keep only the n rectangles of the combinations covering the most cells,
+ *                     if the combinations have more (default -1, all rectangles)
+ * --top-n --> Write only the n best combinations of each shape by ComboScore, 
+ *             combination 0 always being the best (default 0, all combinations)
+ * --format --> Output file format, csv with the rectangles in WKT, or the fixed-width binary
+ *              records of BinarySink in the rows or columns layout (default csv)
+ * --manifest --> File the hashes of the cells of the shapes are saved to, and read from with --previous
+ * --previous --> Output file of the previous run with --manifest, whose rows are copied 
+ *                for the shapes with unchanged cells instead of tiling them again
+ * --verbose --> Print the tiles and the combinations of every shape
+ * --metrics --> File the counters, histograms and slowest shapes of the run are saved to, in JSON
+ * --metrics-port --> Serve the metrics in the Prometheus text format at http://localhost:<port>/metrics 
+ *                    during the run
+ * --time-budget, --combo-budget, --memory-budget --> Limits on the wall time, the combinations and 
+ *              their estimated memory of the merge rounds of each shape, past which the combinations 
+ *              with the fewest rectangles found so far are written as not optimal (default 0, no limit)
+ * --shard --> Tile only the shapes of shard i of n, those with id mod n = i, 
+ *             whose outputs ShardMerge merges into the output of all shapes */
+final class Options {
+
+	static final String USAGE = "Usage: Tiling <input file> <output file> [--threads <n>] [--parse wkb|wkt] [--mmap] [--solver merge|partition]"
+			+ " [--cache-size <n>] [--cache-file <file>] [--cache-symmetry] [--jdbc <url>]"
+			+ " [--polygons] [--lower-limit <n>] [--upper-limit <n>] [--resolution <n>] [--refine <levels>] [--oriented]"
+			+ " [--desired-tiles <n>] [--top-n <n>] [--format csv|rows|columns]"
+			+ " [--manifest <file>] [--previous <file>] [--verbose] [--metrics <file>] [--metrics-port <port>]"
+			+ " [--time-budget <ms>] [--combo-budget <n>] [--memory-budget <mb>] [--shard <i>/<n>]";
+	static final int DEFAULT_CACHE_SIZE = 100000;
+
+	String inputFile;
+	String outputFile;
+	int threads = 1;
+	boolean parseWKT = false;
+	boolean mmap = false;
+	Solver solver = Solver.MERGE;
+	int cacheSize = -1;
+	String cacheFile;
+	boolean cacheSymmetry = false;
+	String jdbcUrl;
+	boolean polygons = false;
+	int lowerLimit = 4;
+	int upperLimit = 12;
+	int resolution = GridGenerator.DEFAULT_STEPS;
+	int refine = 0;
+	boolean oriented = false;
+	int desiredTiles = -1;
+	int topN = 0;
+	String format = "csv";
+	String manifestFile;
+	String previousFile;
+	boolean verbose = false;
+	String metricsFile;
+	int metricsPort = 0;
+	int timeBudget = 0;
+	int comboBudget = 0;
+	int memoryBudget = 0;
+	Shard shard;
+
+	/* Parse args, throwing IllegalArgumentException on invalid arguments. */
+	static Options parse(String[] args) {
+		Options options = new Options();
+		int positional = 0;
+
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("--threads")) {
+				options.threads = intValue(arg, value(args, ++i, arg));
+				if (options.threads < 0)
+					throw new IllegalArgumentException("Option " + arg + " must not be negative");
+			}
+			else if (arg.equals("--parse")) {
+				String value = value(args, ++i, arg);
+				if (!value.equals("wkb") && !value.equals("wkt"))
+					throw new IllegalArgumentException("Option " + arg + " expects wkb or wkt, got " + value);
+				options.parseWKT = value.equals("wkt");
+			}
+			else if (arg.equals("--mmap")) {
+				options.mmap = true;
+			}
+			else if (arg.equals("--solver")) {
+				String value = value(args, ++i, arg);
+				if (!value.equals("merge") && !value.equals("partition"))
+					throw new IllegalArgumentException("Option " + arg + " expects merge or partition, got " + value);
+				options.solver = Solver.valueOf(value.toUpperCase());
+			}
+			else if (arg.equals("--cache-size")) {
+				options.cacheSize = intValue(arg, value(args, ++i, arg));
+				if (options.cacheSize < 0)
+					throw new IllegalArgumentException("Option " + arg + " must not be negative");
+			}
+			else if (arg.equals("--cache-file")) {
+				options.cacheFile = value(args, ++i, arg);
+			}
+			else if (arg.equals("--cache-symmetry")) {
+				options.cacheSymmetry = true;
+			}
+			else if (arg.equals("--jdbc")) {
+				options.jdbcUrl = value(args, ++i, arg);
+			}
+			else if (arg.equals("--polygons")) {
+				options.polygons = true;
+			}
+			else if (arg.equals("--lower-limit")) {
+				options.lowerLimit = intValue(arg, value(args, ++i, arg));
+			}
+			else if (arg.equals("--upper-limit")) {
+				options.upperLimit = intValue(arg, value(args, ++i, arg));
+			}
+			else if (arg.equals("--resolution")) {
+				options.resolution = intValue(arg, value(args, ++i, arg));
+				if (options.resolution < 1)
+					throw new IllegalArgumentException("Option " + arg + " must be positive");
+			}
+			else if (arg.equals("--refine")) {
+				options.refine = intValue(arg, value(args, ++i, arg));
+				if (options.refine < 0)
+					throw new IllegalArgumentException("Option " + arg + " must not be negative");
+			}
+			else if (arg.equals("--oriented")) {
+				options.oriented = true;
+			}
+			else if (arg.equals("--desired-tiles")) {
+				options.desiredTiles = intValue(arg, value(args, ++i, arg));
+				if (options.desiredTiles < 1 && options.desiredTiles != -1)
+					throw new IllegalArgumentException("Option " + arg + " must be positive, or -1 for all rectangles");
+			}
+			else if (arg.equals("--top-n")) {
+				options.topN = intValue(arg, value(args, ++i, arg));
+				if (options.topN < 0)
+					throw new IllegalArgumentException("Option " + arg + " must not be negative");
+			}
+			else if (arg.equals("--format")) {
+				options.format = value(args, ++i, arg);
+				if (!options.format.equals("csv") && !options.format.equals("rows") && !options.format.equals("columns"))
+					throw new IllegalArgumentException("Option " + arg + " expects csv, rows or columns, got " + options.format);
+			}
+			else if (arg.equals("--manifest")) {
+				options.manifestFile = value(args, ++i, arg);
+			}
+			else if (arg.equals("--previous")) {
+				options.previousFile = value(args, ++i, arg);
+			}
+			else if (arg.equals("--verbose")) {
+				options.verbose = true;
+			}
+			else if (arg.equals("--metrics")) {
+				options.metricsFile = value(args, ++i, arg);
+			}
+			else if (arg.equals("--metrics-port")) {
+				options.metricsPort = intValue(arg, value(args, ++i, arg));
+				if (options.metricsPort < 1 || options.metricsPort > 65535)
+					throw new IllegalArgumentException("Option " + arg + " expects a port from 1 to 65535");
+			}
+			else if (arg.equals("--time-budget") || arg.equals("--combo-budget") || arg.equals("--memory-budget")) {
+				int budget = intValue(arg, value(args, ++i, arg));
+				if (budget < 0)
+					throw new IllegalArgumentException("Option " + arg + " must not be negative");
+				if (arg.equals("--time-budget"))
+					options.timeBudget = budget;
+				else if (arg.equals("--combo-budget"))
+					options.comboBudget = budget;
+				else
+					options.memoryBudget = budget;
+			}
+			else if (arg.equals("--shard")) {
+				options.shard = Shard.parse(arg, value(args, ++i, arg));
+			}
+			else if (arg.startsWith("--")) {
+				throw new IllegalArgumentException("Unknown option " + arg);
+			}
+			else if (positional == 0) {
+				options.inputFile = arg;
+				positional++;
+			}
+			else if (positional == 1) {
+				options.outputFile = arg;
+				positional++;
+			}
+			else {
+				throw new IllegalArgumentException("Unexpected argument " + arg);
+			}
+		}
+
+		if (positional < 2)
+			throw new IllegalArgumentException("Missing input or output file");
+		if (options.lowerLimit > options.upperLimit)
+			throw new IllegalArgumentException("Option --lower-limit must not exceed --upper-limit");
+		// The finest cells of a polygon must fit the grid indices of Rect
+		if ((long) (options.resolution + 1) << Math.min(options.refine, 32) > Rect.MAX_INDEX)
+			throw new IllegalArgumentException("Options --resolution and --refine give a grid finer than " + Rect.MAX_INDEX + " cells");
+		if (options.oriented && !options.polygons)
+			throw new IllegalArgumentException("Option --oriented needs --polygons");
+		if (options.oriented && !options.format.equals("csv"))
+			throw new IllegalArgumentException("Option --oriented writes rotated rectangles, which the binary formats cannot hold");
+		if (options.mmap && options.jdbcUrl != null)
+			throw new IllegalArgumentException("Option --mmap reads input files, not tables");
+		if (options.jdbcUrl != null && !options.format.equals("csv"))
+			throw new IllegalArgumentException("Option --format does not apply to tables");
+		if (options.previousFile != null && options.manifestFile == null)
+			throw new IllegalArgumentException("Option --previous needs --manifest");
+		if (options.previousFile != null && options.jdbcUrl != null)
+			throw new IllegalArgumentException("Option --previous does not apply to tables");
+		if (options.previousFile != null && new File(options.previousFile).getAbsoluteFile().equals(new File(options.outputFile).getAbsoluteFile()))
+			throw new IllegalArgumentException("Option --previous must not be the output file");
+		if (options.jdbcUrl != null) {
+			PostgisSource.checkTable(options.inputFile);
+			PostgisSource.checkTable(options.outputFile);
+		}
+		if (options.threads == 0)
+			options.threads = Runtime.getRuntime().availableProcessors();
+		if (options.cacheSize == -1)
+			options.cacheSize = options.cacheFile != null ? DEFAULT_CACHE_SIZE : 0;
+
+		return options;
+	}
+
+	/* Options the rectangles of a shape depend on, besides its cells. */
+	String settings() {
+		return "solver=" + solver + " desired-tiles=" + desiredTiles + " ranked=keys top-n=" + topN;
+	}
+
+	/* True if the merge rounds of the shapes have a budget. */
+	boolean budgeted() {
+		return timeBudget > 0 || comboBudget > 0 || memoryBudget > 0;
+	}
+
+	/* Budget of the merge rounds of a shape, starting now. */
+	Budget budget() {
+		return budgeted() ? new Budget(timeBudget, comboBudget, memoryBudget) : Budget.UNLIMITED;
+	}
+
+	static String value(String[] args, int i, String option) {
+		if (i >= args.length)
+			throw new IllegalArgumentException("Missing value of option " + option);
+		return args[i];
+	}
+
+	static int intValue(String option, String value) {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Option " + option + " expects an integer, got " + value);
+		}
+	}
+}
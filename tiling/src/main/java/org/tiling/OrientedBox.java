@@ -0,0 +1,139 @@
+package org.tiling;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateFilter;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.util.AffineTransformation;
+
+/* Minimum-area oriented bounding box of a polygon, found with rotating calipers
+ * over the convex hull: the box of least area has a side on an edge of the hull,
+ * and the extreme vertices along each edge and its normal only move forward
+ * around the hull as the edges do, so all edges are tried in linear time.
+ * The frame of the box is the polygon rotated about the first vertex of the
+ * hull so that the box is axis-aligned, where it can be split into a grid. */
+final class OrientedBox {
+
+	// Relative area a rotated box must save to be used instead of the axis-aligned one
+	static final double MIN_GAIN = 1e-9;
+	// Distance, relative to the longer side of the box, within which rotated coordinates are snapped onto it
+	static final double SNAP = 1e-9;
+
+	// Angle of the side of the box on the x axis of its frame, in [0, PI/2)
+	final double angle;
+	final double area;
+	private final Coordinate pivot;
+
+	private OrientedBox(double angle, double area, Coordinate pivot) {
+		this.angle = angle;
+		this.area = area;
+		this.pivot = pivot;
+	}
+
+	/* Return the oriented box of polygon with the least area, or null if it is
+	 * its axis-aligned envelope, or no smaller than it, so no rotation is needed. */
+	static OrientedBox of(Geometry polygon) {
+		Coordinate[] hull = polygon.convexHull().getCoordinates();
+		int n = hull.length - 1; // the ring is closed
+		if (n < 3)
+			return null;
+		// Counter-clockwise, so the inside is left of every edge
+		if (signedArea(hull, n) < 0) {
+			for (int i = 0, j = n - 1; i < j; i++, j--) {
+				Coordinate c = hull[i];
+				hull[i] = hull[j];
+				hull[j] = c;
+			}
+			hull[n] = hull[0];
+		}
+
+		double bestArea = Double.MAX_VALUE, bestAngle = 0;
+		int right = 0, top = 0, left = 0;
+		boolean first = true;
+		for (int i = 0; i < n; i++) {
+			Coordinate a = hull[i], b = hull[i + 1];
+			double length = Math.hypot(b.x - a.x, b.y - a.y);
+			if (length == 0)
+				continue;
+			// Unit vector along the edge and its normal pointing inside
+			double ux = (b.x - a.x) / length, uy = (b.y - a.y) / length;
+			double nx = -uy, ny = ux;
+			if (first)
+				right = i;
+			while (dot(hull[(right + 1) % n], a, ux, uy) > dot(hull[right], a, ux, uy))
+				right = (right + 1) % n;
+			if (first)
+				top = right;
+			while (dot(hull[(top + 1) % n], a, nx, ny) > dot(hull[top], a, nx, ny))
+				top = (top + 1) % n;
+			if (first)
+				left = top;
+			while (dot(hull[(left + 1) % n], a, ux, uy) < dot(hull[left], a, ux, uy))
+				left = (left + 1) % n;
+			first = false;
+
+			double area = (dot(hull[right], a, ux, uy) - dot(hull[left], a, ux, uy)) * dot(hull[top], a, nx, ny);
+			if (area < bestArea) {
+				bestArea = area;
+				bestAngle = Math.atan2(uy, ux);
+			}
+		}
+
+		double envelopeArea = polygon.getEnvelopeInternal().getArea();
+		if (!(bestArea < envelopeArea * (1 - MIN_GAIN)))
+			return null;
+		// The box is the same for angles PI/2 apart
+		double angle = bestAngle % (Math.PI / 2);
+		if (angle < 0)
+			angle += Math.PI / 2;
+		return new OrientedBox(angle, bestArea, new Coordinate(hull[0]));
+	}
+
+	private static double dot(Coordinate c, Coordinate origin, double x, double y) {
+		return (c.x - origin.x) * x + (c.y - origin.y) * y;
+	}
+
+	private static double signedArea(Coordinate[] ring, int n) {
+		double sum = 0;
+		for (int i = 0; i < n; i++)
+			sum += ring[i].x * ring[i + 1].y - ring[i + 1].x * ring[i].y;
+		return sum / 2;
+	}
+
+	/* Return polygon in the frame of the box. The rotation leaves the vertices
+	 * on the sides of the box an ulp or so off them, which would cut the cells
+	 * along those sides, so the coordinates within SNAP of a side are moved onto it. */
+	Geometry toFrame(Geometry polygon) {
+		Geometry framed = toFrame().transform(polygon);
+		final Envelope box = framed.getEnvelopeInternal();
+		final double tolerance = SNAP * Math.max(box.getWidth(), box.getHeight());
+		framed.apply(new CoordinateFilter() {
+			@Override
+			public void filter(Coordinate c) {
+				c.x = snap(c.x, box.getMinX(), box.getMaxX(), tolerance);
+				c.y = snap(c.y, box.getMinY(), box.getMaxY(), tolerance);
+			}
+		});
+		framed.geometryChanged();
+		return framed;
+	}
+
+	/* Return value, or min or max if it is within tolerance of them. */
+	static double snap(double value, double min, double max, double tolerance) {
+		if (Math.abs(value - min) <= tolerance)
+			return min;
+		if (Math.abs(max - value) <= tolerance)
+			return max;
+		return value;
+	}
+
+	/* Transformation from world coordinates to the frame of the box. */
+	AffineTransformation toFrame() {
+		return AffineTransformation.rotationInstance(-angle, pivot.x, pivot.y);
+	}
+
+	/* Transformation from the frame of the box back to world coordinates. */
+	AffineTransformation toWorld() {
+		return AffineTransformation.rotationInstance(angle, pivot.x, pivot.y);
+	}
+}
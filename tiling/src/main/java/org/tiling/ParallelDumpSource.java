@@ -0,0 +1,105 @@
+package org.tiling;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/* Reads a MappedDumpSource split into chunks of about CHUNK_BYTES on 'threads'
+ * threads, and returns the shapes, or with polygons the polygons, of the chunks
+ * in the order of the file. Like tileShapes, it reads up to twice as many chunks
+ * as threads ahead, so only those are in memory at any time. The polygons are
+ * parsed by the reading threads too, so GridGenerator gets them ready. */
+final class ParallelDumpSource implements ShapeSource, PolygonSource {
+
+	static final long CHUNK_BYTES = 4 << 20;
+
+	private final List<MappedDumpSource> chunks;
+	private final boolean polygons;
+	private final int threads;
+	private final ExecutorService executor;
+	private final Deque<Future<List<Object>>> results = new ArrayDeque<Future<List<Object>>>();
+	private int submitted;
+	private Iterator<Object> current = Collections.emptyIterator();
+
+	ParallelDumpSource(MappedDumpSource source, int threads, boolean polygons) throws IOException {
+		long parts = Math.max(threads, source.size() / CHUNK_BYTES);
+		this.chunks = source.split((int) Math.min(parts, Integer.MAX_VALUE));
+		this.polygons = polygons;
+		this.threads = Math.max(1, threads);
+		this.executor = Executors.newFixedThreadPool(this.threads);
+	}
+
+	@Override
+	public Shape next() throws IOException {
+		if (polygons)
+			throw new IllegalStateException("The source reads polygons, not shapes");
+		return (Shape) nextItem();
+	}
+
+	@Override
+	public Cell nextPolygon() throws IOException {
+		if (!polygons)
+			throw new IllegalStateException("The source reads shapes, not polygons");
+		return (Cell) nextItem();
+	}
+
+	private Object nextItem() throws IOException {
+		while (!current.hasNext()) {
+			while (results.size() < 2 * threads && submitted < chunks.size())
+				results.add(executor.submit(read(chunks.get(submitted++))));
+			if (results.isEmpty())
+				return null;
+			try {
+				current = results.poll().get().iterator();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while reading the input", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException)
+					throw (IOException) e.getCause();
+				throw new IllegalStateException("Reading the input failed", e.getCause());
+			}
+		}
+		return current.next();
+	}
+
+	/* Read the shapes or polygons of chunk. */
+	private Callable<List<Object>> read(final MappedDumpSource chunk) {
+		return new Callable<List<Object>>() {
+			@Override
+			public List<Object> call() throws IOException {
+				List<Object> items = new ArrayList<Object>();
+				if (!polygons) {
+					Shape shape;
+					while ((shape = chunk.next()) != null)
+						items.add(shape);
+					return items;
+				}
+				Cell polygon;
+				while ((polygon = chunk.nextPolygon()) != null) {
+					try {
+						polygon.getGeom();
+					} catch (IllegalArgumentException e) {
+						// Left unparsed, for GridGenerator to report with its id
+					}
+					items.add(polygon);
+				}
+				return items;
+			}
+		};
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+}
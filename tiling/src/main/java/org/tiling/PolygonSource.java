@@ -0,0 +1,12 @@
+package org.tiling;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/* Source of whole polygons, one per row (id, geometry), to be split into grid cells. */
+interface PolygonSource extends Closeable {
+
+	/* Return the next polygon, as a Cell holding its id and geometry,
+	 * or null when there are no more polygons. */
+	Cell nextPolygon() throws IOException;
+}
@@ -0,0 +1,210 @@
+package org.tiling;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Polygon;
+
+/* Writes the generated rectangles into a PostGIS table (id, combo, geom), with
+ * a column optimal too if some shapes may be tiled out of budget, or
+ * whole polygons or multipolygons into a table (id, geom), created if it does not exist, 
+ * with a single COPY ... FROM STDIN (FORMAT binary).
+ * Rows are encoded in the binary copy format, the geometries as big endian EWKB,
+ * and sent in batches of about BATCH_SIZE bytes. The rows, and the table if it
+ * is created, are committed by finish(), once every shape is written, and
+ * rolled back on close otherwise, so that a run failing midway leaves no
+ * partial table for a rerun to append to. */
+final class PostgisSink implements ShapeSink {
+
+	static final int BATCH_SIZE = 1 << 16;
+
+	private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+	private static final int EWKB_SRID = 0x20000000;
+	private static final int WKB_POLYGON = 3;
+	private static final int WKB_MULTIPOLYGON = 6;
+
+	private final String table;
+	private final int srid;
+	private final boolean combos;
+	private final boolean optimal;
+	private final Connection connection;
+	private final CopyIn copy;
+	private final ByteArrayOutputStream batch = new ByteArrayOutputStream(2 * BATCH_SIZE);
+	private final DataOutputStream out = new DataOutputStream(batch);
+	private boolean finished;
+
+	PostgisSink(String url, String table, int srid, boolean optimal) throws IOException {
+		this(url, table, srid, true, optimal);
+	}
+
+	/* Write the combo ids of the cells too if combos is true, otherwise only their shape ids, 
+	 * and whether the cells are optimal if optimal is true. */
+	PostgisSink(String url, String table, int srid, boolean combos, boolean optimal) throws IOException {
+		this.table = PostgisSource.checkTable(table);
+		this.srid = srid;
+		this.combos = combos;
+		this.optimal = optimal;
+		try {
+			connection = DriverManager.getConnection(url);
+		} catch (SQLException e) {
+			throw new IOException("Cannot connect to the database", e);
+		}
+		try {
+			connection.setAutoCommit(false);
+			try (Statement statement = connection.createStatement()) {
+				statement.execute("CREATE TABLE IF NOT EXISTS " + table
+						+ (combos ? " (id integer, combo integer, geom geometry(Polygon, " : " (id integer, geom geometry(Geometry, ") + srid + ")"
+						+ (optimal ? ", optimal boolean)" : ")"));
+			}
+			copy = connection.unwrap(PGConnection.class).getCopyAPI()
+					.copyIn("COPY " + table + (combos ? " (id, combo, geom" : " (id, geom") + (optimal ? ", optimal)" : ")") 
+							+ " FROM STDIN (FORMAT binary)");
+		} catch (SQLException e) {
+			closeQuietly();
+			throw new IOException("Cannot write table " + table, e);
+		}
+
+		out.write(SIGNATURE);
+		out.writeInt(0); // flags
+		out.writeInt(0); // header extension length
+	}
+
+	@Override
+	public void write(List<Cell> newCells) throws IOException {
+		for (Cell cell : newCells) {
+			out.writeShort((combos ? 3 : 2) + (optimal ? 1 : 0));
+			out.writeInt(4);
+			out.writeInt(intValue(cell.getShapeId()));
+			if (combos) {
+				out.writeInt(4);
+				out.writeInt(intValue(cell.getComboId()));
+			}
+			writeEWKB(cell.getGeom());
+			if (optimal) {
+				out.writeInt(1);
+				out.writeByte(cell.isOptimal() ? 1 : 0);
+			}
+		}
+		if (batch.size() >= BATCH_SIZE)
+			flush();
+	}
+
+	private void writeEWKB(Geometry geom) throws IOException {
+		if (geom instanceof Polygon) {
+			out.writeInt(9 + length((Polygon) geom));
+			out.writeByte(0); // big endian
+			out.writeInt(WKB_POLYGON | EWKB_SRID);
+			out.writeInt(srid);
+			writeRings((Polygon) geom);
+		}
+		else if (geom instanceof MultiPolygon) {
+			int length = 13;
+			for (int i = 0; i < geom.getNumGeometries(); i++)
+				length += 5 + length((Polygon) geom.getGeometryN(i));
+			out.writeInt(length);
+			out.writeByte(0);
+			out.writeInt(WKB_MULTIPOLYGON | EWKB_SRID);
+			out.writeInt(srid);
+			out.writeInt(geom.getNumGeometries());
+			for (int i = 0; i < geom.getNumGeometries(); i++) {
+				out.writeByte(0);
+				out.writeInt(WKB_POLYGON);
+				writeRings((Polygon) geom.getGeometryN(i));
+			}
+		}
+		else {
+			throw new IOException("Cannot write " + geom.getGeometryType() + " to table " + table);
+		}
+	}
+
+	/* Number of bytes of the rings of polygon, with their count. */
+	private static int length(Polygon polygon) {
+		int length = 4 + 4 + 16 * polygon.getExteriorRing().getNumPoints();
+		for (int i = 0; i < polygon.getNumInteriorRing(); i++)
+			length += 4 + 16 * polygon.getInteriorRingN(i).getNumPoints();
+		return length;
+	}
+
+	private void writeRings(Polygon polygon) throws IOException {
+		out.writeInt(1 + polygon.getNumInteriorRing());
+		writeRing(polygon.getExteriorRing());
+		for (int i = 0; i < polygon.getNumInteriorRing(); i++)
+			writeRing(polygon.getInteriorRingN(i));
+	}
+
+	private void writeRing(LineString ring) throws IOException {
+		out.writeInt(ring.getNumPoints());
+		for (Coordinate coord : ring.getCoordinates()) {
+			out.writeDouble(coord.x);
+			out.writeDouble(coord.y);
+		}
+	}
+
+	private int intValue(String id) throws IOException {
+		try {
+			return Integer.parseInt(id);
+		} catch (NumberFormatException e) {
+			throw new IOException("Id " + id + " does not fit the integer columns of table " + table, e);
+		}
+	}
+
+	private void flush() throws IOException {
+		try {
+			copy.writeToCopy(batch.toByteArray(), 0, batch.size());
+		} catch (SQLException e) {
+			throw new IOException("Cannot write table " + table, e);
+		}
+		batch.reset();
+	}
+
+	/* End the copy and commit the rows written. */
+	@Override
+	public void finish() throws IOException {
+		try {
+			out.writeShort(-1); // file trailer
+			flush();
+			copy.endCopy();
+			connection.commit();
+			finished = true;
+		} catch (SQLException e) {
+			throw new IOException("Cannot write table " + table, e);
+		}
+	}
+
+	/* Close the connection, rolling the rows back unless finish() committed them. */
+	@Override
+	public void close() {
+		if (!finished) {
+			try {
+				if (copy.isActive())
+					copy.cancelCopy();
+				connection.rollback();
+			} catch (SQLException e) {
+				// Closing the connection discards them too
+			}
+		}
+		closeQuietly();
+	}
+
+	/* Close the connection, aborting the copy and discarding the rows not committed. */
+	private void closeQuietly() {
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			// Nothing left to save
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package org.tiling;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/* Reads the cells of a PostGIS table (id, cell), as created by step2,
+ * one shape at a time straight from the database.
+ * Rows are ordered by id and fetched through a server-side cursor, FETCH_SIZE
+ * rows per round trip, so only the cells of the current shape are kept in memory.
+ * The cells are fetched as binary WKB and decoded straight into their envelopes.
+ * As a PolygonSource, every row of the table (id, geom), as created by step1,
+ * is a whole polygon instead. */
+final class PostgisSource implements ShapeSource, PolygonSource {
+
+	static final int FETCH_SIZE = 10000;
+
+	private static final Pattern TABLE = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)?");
+
+	private final String table;
+	private final Connection connection;
+	private final int srid;
+	private final ResultSet rows;
+	private boolean hasNext;
+
+	/* Read column, "cell" or "geom", of table. */
+	PostgisSource(String url, String table, String column) throws IOException {
+		this.table = checkTable(table);
+		try {
+			connection = DriverManager.getConnection(url);
+		} catch (SQLException e) {
+			throw new IOException("Cannot connect to the database", e);
+		}
+		try {
+			// The driver only fetches through a cursor outside of autocommit mode
+			connection.setAutoCommit(false);
+			try (Statement statement = connection.createStatement();
+					ResultSet result = statement.executeQuery("SELECT ST_SRID(" + column + ") FROM " + table + " LIMIT 1")) {
+				srid = result.next() ? result.getInt(1) : 0;
+			}
+			Statement statement = connection.createStatement();
+			statement.setFetchSize(FETCH_SIZE);
+			rows = statement.executeQuery("SELECT id, ST_AsBinary(" + column + ") FROM " + table + " ORDER BY id");
+			hasNext = rows.next();
+		} catch (SQLException e) {
+			close();
+			throw new IOException("Cannot read table " + table, e);
+		}
+	}
+
+	/* Spatial reference id of the geometries, 0 if the table is empty. */
+	int srid() {
+		return srid;
+	}
+
+	@Override
+	public Shape next() throws IOException {
+		if (!hasNext)
+			return null;
+
+		try {
+			String shapeId = rows.getString(1);
+			List<Envelope> cells = new ArrayList<Envelope>();
+			do {
+				byte[] wkb = rows.getBytes(2);
+				if (wkb == null)
+					throw new IOException("Missing cell of shape " + shapeId + " in table " + table);
+				try {
+					cells.add(CellDecoder.envelopeOfWKB(wkb));
+				} catch (IllegalArgumentException e) {
+					throw new IOException("Invalid cell of shape " + shapeId + " in table " + table, e);
+				}
+				hasNext = rows.next();
+			} while (hasNext && rows.getString(1).equals(shapeId));
+			return new Shape(shapeId, cells);
+		} catch (SQLException e) {
+			throw new IOException("Cannot read table " + table, e);
+		}
+	}
+
+	@Override
+	public Cell nextPolygon() throws IOException {
+		if (!hasNext)
+			return null;
+
+		try {
+			String shapeId = rows.getString(1);
+			byte[] wkb = rows.getBytes(2);
+			if (wkb == null)
+				throw new IOException("Missing geometry of polygon " + shapeId + " in table " + table);
+			Cell polygon;
+			try {
+				polygon = new Cell(shapeId, (String) null, CellDecoder.readWKB(wkb));
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Invalid geometry of polygon " + shapeId + " in table " + table, e);
+			}
+			hasNext = rows.next();
+			return polygon;
+		} catch (SQLException e) {
+			throw new IOException("Cannot read table " + table, e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			// Nothing was written, closing the cursor is all that is left
+			connection.rollback();
+			connection.close();
+		} catch (SQLException e) {
+			throw new IOException("Cannot close connection", e);
+		}
+	}
+
+	/* Return table, throwing IllegalArgumentException if it is not a plain,
+	 * optionally schema-qualified, table name. */
+	static String checkTable(String table) {
+		if (!TABLE.matcher(table).matches())
+			throw new IllegalArgumentException("Invalid table name " + table);
+		return table;
+	}
+}
@@ -0,0 +1,48 @@
+package org.tiling;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+import com.vividsolutions.jts.io.WKBWriter;
+
+/* Writes whole polygons (id | geom) in the format psql prints them,
+ * so that PsqlDumpSource can read them back, e.g. with --polygons.
+ * The geometries are written in hex WKB, the one they were read in if any. */
+final class PsqlDumpSink implements ShapeSink {
+
+	private final BufferedWriter writer;
+	private final WKBWriter writerWKB = new WKBWriter();
+	private int rows;
+
+	PsqlDumpSink(String outputFile) throws IOException {
+		writer = new BufferedWriter(new FileWriter(outputFile));
+		writer.write(" id | geom\n");
+		writer.write("----+------\n");
+	}
+
+	@Override
+	public void write(List<Cell> polygons) throws IOException {
+		for (Cell polygon : polygons) {
+			String hex = polygon.getWKB() != null ? polygon.getWKB() : WKBWriter.toHex(writerWKB.write(polygon.getGeom()));
+			writer.write(' ');
+			writer.write(polygon.getShapeId());
+			writer.write(" | ");
+			writer.write(hex);
+			writer.write('\n');
+			rows++;
+		}
+	}
+
+	/* Write the row count footer psql prints after the rows. */
+	@Override
+	public void finish() throws IOException {
+		writer.write(rows == 1 ? "(1 row)\n" : "(" + rows + " rows)\n");
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+}
@@ -0,0 +1,89 @@
+package org.tiling;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.opencsv.CSVParser;
+import com.opencsv.CSVParserBuilder;
+import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
+import com.opencsv.exceptions.CsvValidationException;
+import com.vividsolutions.jts.geom.Envelope;
+
+/* Reads the cells printed by psql (id | cell [| st_astext]) one shape at a time.
+ * The cells of a shape must be consecutive, as with ORDER BY id, 
+ * so only the cells of the current shape are kept in memory.
+ * By default only the hex WKB column is decoded, straight into the cell 
+ * envelopes, and the optional WKT column is ignored. With parseWKT the 
+ * WKT column is parsed instead.
+ * As a PolygonSource, every row is a whole polygon (id | geom [| st_astext]) instead. */
+final class PsqlDumpSource implements ShapeSource, PolygonSource {
+
+	// Row count printed by psql after the rows, e.g. (12 rows) or (1 row)
+	private static final Pattern FOOTER = Pattern.compile("\\s*\\(\\d+ rows?\\)\\s*");
+
+	private final CSVReader reader;
+	private final boolean parseWKT;
+	private Cell nextCell;
+
+	PsqlDumpSource(String inputFile, boolean parseWKT) throws IOException {
+		this.parseWKT = parseWKT;
+		CSVParser csvParser = new CSVParserBuilder().withSeparator('|').build(); // custom separator
+		reader = new CSVReaderBuilder(new FileReader(inputFile))
+				.withCSVParser(csvParser)   // custom CSV parser
+				.withSkipLines(2)           // skip the first two lines, header info
+				.build();
+		nextCell = readCell();
+	}
+
+	@Override
+	public Shape next() throws IOException {
+		if (nextCell == null)
+			return null;
+
+		String shapeId = nextCell.getShapeId();
+		List<Envelope> cells = new ArrayList<Envelope>();
+		while (nextCell != null && nextCell.getShapeId().equals(shapeId)) {
+			try {
+				cells.add(nextCell.getEnvelope());
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Invalid cell of shape " + shapeId + " before line " + reader.getLinesRead(), e);
+			}
+			nextCell = readCell();
+		}
+		return new Shape(shapeId, cells);
+	}
+
+	@Override
+	public Cell nextPolygon() throws IOException {
+		Cell polygon = nextCell;
+		if (polygon != null)
+			nextCell = readCell();
+		return polygon;
+	}
+
+	/* Return the next cell, or null at the row count footer or the end of the file. */
+	private Cell readCell() throws IOException {
+		String[] lineInArray;
+		try {
+			lineInArray = reader.readNext();
+		} catch (CsvValidationException e) {
+			throw new IOException("Invalid line " + reader.getLinesRead(), e);
+		}
+		if (lineInArray == null || (lineInArray.length == 1 && FOOTER.matcher(lineInArray[0]).matches()))
+			return null;
+		if (lineInArray.length < (parseWKT ? 3 : 2))
+			throw new IOException("Missing cell column on line " + reader.getLinesRead());
+		if (parseWKT)
+			return new Cell(lineInArray[0], (String) null, lineInArray[2]);
+		return new Cell(lineInArray[0], lineInArray[1], (String) null);
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
@@ -0,0 +1,121 @@
+package org.tiling;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Point;
+
+/* Answers within-distance and nearest queries against a set of targets in memory,
+ * like ST_DWithin and MIN(ST_Distance) do in the queries on geometry_bounded.
+ * A target is every geometry with the same id, e.g. a point, a polygon, or the
+ * bounded rectangles of a combination of a polygon, and its distance from a query
+ * is the least distance of its geometries from the query geometries.
+ * Candidates are filtered on an STR-packed R-tree of the target envelopes, and
+ * the exact geometries are compared only when either of them is not equal to its
+ * envelope, i.e. not a point or an axis-aligned rectangle. */
+final class QueryEngine {
+
+	/* Target closest to a query and its distance. */
+	static final class Nearest {
+		final String id;
+		final double distance;
+
+		Nearest(String id, double distance) {
+			this.id = id;
+			this.distance = distance;
+		}
+	}
+
+	private final List<String> ids = new ArrayList<String>();
+	private final List<Geometry> geoms = new ArrayList<Geometry>();
+	private final int[] targets;     // target of each geometry
+	private final boolean[] boxes;   // whether each geometry is its envelope
+	private final RTree tree;
+
+	/* Index the geometries of the cells, grouped into targets by their shape ids.
+	 * Empty geometries are ignored. */
+	QueryEngine(List<Cell> cells) {
+		Map<String, Integer> targetOf = new HashMap<String, Integer>();
+		List<Integer> targetList = new ArrayList<Integer>();
+		List<Envelope> envelopes = new ArrayList<Envelope>();
+		for (Cell cell : cells) {
+			Geometry geom = cell.getGeom();
+			if (geom.isEmpty())
+				continue;
+			Integer target = targetOf.get(cell.getShapeId());
+			if (target == null) {
+				target = ids.size();
+				targetOf.put(cell.getShapeId(), target);
+				ids.add(cell.getShapeId());
+			}
+			targetList.add(target);
+			geoms.add(geom);
+			envelopes.add(geom.getEnvelopeInternal());
+		}
+		targets = new int[geoms.size()];
+		boxes = new boolean[geoms.size()];
+		for (int i = 0; i < targets.length; i++) {
+			targets[i] = targetList.get(i);
+			boxes[i] = isBox(geoms.get(i));
+		}
+		tree = new RTree(envelopes);
+	}
+
+	int size() {
+		return ids.size();
+	}
+
+	/* Return the ids of the targets within distance of any of the query geometries,
+	 * in the order they were first indexed. */
+	List<String> within(List<Geometry> query, final double distance) {
+		final BitSet found = new BitSet();
+		for (final Geometry geom : query) {
+			if (geom.isEmpty())
+				continue;
+			final boolean box = isBox(geom);
+			tree.search(geom.getEnvelopeInternal(), distance, new RTree.Visitor() {
+				@Override
+				public void visit(int item) {
+					// The envelopes are within distance, which is exact for boxes
+					if (!found.get(targets[item]) && ((box && boxes[item]) || geom.isWithinDistance(geoms.get(item), distance)))
+						found.set(targets[item]);
+				}
+			});
+		}
+
+		List<String> result = new ArrayList<String>(found.cardinality());
+		for (int target = found.nextSetBit(0); target >= 0; target = found.nextSetBit(target + 1))
+			result.add(ids.get(target));
+		return result;
+	}
+
+	/* Return the target closest to any of the query geometries, the first one
+	 * indexed if several are equally close, or null if there are no targets. */
+	Nearest nearest(List<Geometry> query) {
+		RTree.Neighbour best = new RTree.Neighbour();
+		for (final Geometry geom : query) {
+			if (geom.isEmpty())
+				continue;
+			final Envelope envelope = geom.getEnvelopeInternal();
+			final boolean box = isBox(geom);
+			tree.nearest(envelope, new RTree.ItemDistance() {
+				@Override
+				public double distance(int item) {
+					if (box && boxes[item])
+						return envelope.distance(geoms.get(item).getEnvelopeInternal());
+					return geom.distance(geoms.get(item));
+				}
+			}, best);
+		}
+		return best.item < 0 ? null : new Nearest(ids.get(targets[best.item]), best.distance);
+	}
+
+	private static boolean isBox(Geometry geom) {
+		return geom instanceof Point || geom.isRectangle();
+	}
+}
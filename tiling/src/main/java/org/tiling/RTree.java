@@ -0,0 +1,245 @@
+package org.tiling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/* Static R-tree over the envelopes of a list of items, bulk loaded with the
+ * Sort-Tile-Recursive packing: the entries of each level are sorted by the x of
+ * their centres into vertical slices, each slice is sorted by y, and every
+ * NODE_CAPACITY consecutive entries of a slice become a node of the next level.
+ * Items are identified by their index in the list. The tree is immutable, so it
+ * can be searched by many threads. */
+final class RTree {
+
+	static final int NODE_CAPACITY = 16;
+
+	/* Exact distance of an item from the query, at least the distance of their envelopes. */
+	interface ItemDistance {
+		double distance(int item);
+	}
+
+	/* Receives the items found by search. */
+	interface Visitor {
+		void visit(int item);
+	}
+
+	/* Closest item found by nearest so far, and its distance. */
+	static final class Neighbour {
+		int item = -1;
+		double distance = Double.POSITIVE_INFINITY;
+	}
+
+	// Level 0 holds the items in leaf order, the last level the root
+	private final double[][] bounds;   // minX, minY, maxX, maxY of the entries of each level
+	private final int[][] firstChild;  // first entry of the level below, for levels above 0
+	private final int[][] childCount;
+	private final int[] items;         // item of each entry of level 0
+
+	RTree(List<Envelope> envelopes) {
+		int n = envelopes.size();
+		double[] leaves = new double[4 * n];
+		for (int i = 0; i < n; i++) {
+			Envelope envelope = envelopes.get(i);
+			if (envelope.isNull())
+				throw new IllegalArgumentException("Item " + i + " has an empty envelope");
+			leaves[4 * i] = envelope.getMinX();
+			leaves[4 * i + 1] = envelope.getMinY();
+			leaves[4 * i + 2] = envelope.getMaxX();
+			leaves[4 * i + 3] = envelope.getMaxY();
+		}
+
+		List<double[]> levelBounds = new ArrayList<double[]>();
+		List<int[]> levelFirst = new ArrayList<int[]>();
+		List<int[]> levelCount = new ArrayList<int[]>();
+		int[] order = strOrder(leaves, n);
+		items = order;
+		levelBounds.add(permute(leaves, order));
+		levelFirst.add(null);
+		levelCount.add(null);
+
+		while (n > 1 || levelBounds.size() == 1) {
+			double[] below = levelBounds.get(levelBounds.size() - 1);
+			List<Integer> groups = groups(below, n);
+			int nodes = groups.size();
+			double[] nodeBounds = new double[4 * nodes];
+			int[] first = new int[nodes], count = new int[nodes];
+			for (int g = 0; g < nodes; g++) {
+				first[g] = groups.get(g);
+				count[g] = (g + 1 < nodes ? groups.get(g + 1) : n) - first[g];
+				union(below, first[g], count[g], nodeBounds, g);
+			}
+			if (nodes > 1) {
+				// Sort the new nodes for the next level, moving their child ranges along
+				order = strOrder(nodeBounds, nodes);
+				nodeBounds = permute(nodeBounds, order);
+				first = permute(first, order);
+				count = permute(count, order);
+			}
+			levelBounds.add(nodeBounds);
+			levelFirst.add(first);
+			levelCount.add(count);
+			n = nodes;
+		}
+		bounds = levelBounds.toArray(new double[0][]);
+		firstChild = levelFirst.toArray(new int[0][]);
+		childCount = levelCount.toArray(new int[0][]);
+	}
+
+	int size() {
+		return items.length;
+	}
+
+	/* Visit every item whose envelope is within distance of the query envelope. */
+	void search(Envelope query, double distance, Visitor visitor) {
+		if (items.length > 0)
+			search(bounds.length - 1, 0, query, distance * distance, visitor);
+	}
+
+	private void search(int level, int entry, Envelope query, double distance2, Visitor visitor) {
+		int first = firstChild[level][entry], last = first + childCount[level][entry];
+		double[] below = bounds[level - 1];
+		for (int child = first; child < last; child++) {
+			if (distance2(below, child, query) > distance2)
+				continue;
+			if (level == 1)
+				visitor.visit(items[child]);
+			else
+				search(level - 1, child, query, distance2, visitor);
+		}
+	}
+
+	/* Find the item closest to the query envelope by the exact distance, if it is
+	 * closer than the best neighbour found so far, and store it in best.
+	 * Nodes and items are visited best first by the distance of their envelopes,
+	 * so the exact distance is computed only for items whose envelope is closer
+	 * than the best exact distance found. Of equally close items the first one
+	 * in the list is kept. */
+	void nearest(Envelope query, ItemDistance exact, Neighbour best) {
+		if (items.length == 0)
+			return;
+		PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>();
+		int root = bounds.length - 1;
+		queue.add(new Candidate(root, 0, Math.sqrt(distance2(bounds[root], 0, query))));
+		Candidate candidate;
+		while ((candidate = queue.poll()) != null && candidate.distance <= best.distance) {
+			if (candidate.level == 0) {
+				int item = items[candidate.entry];
+				double distance = exact.distance(item);
+				if (distance < best.distance || (distance == best.distance && item < best.item)) {
+					best.item = item;
+					best.distance = distance;
+				}
+				continue;
+			}
+			int level = candidate.level, first = firstChild[level][candidate.entry];
+			for (int child = first; child < first + childCount[level][candidate.entry]; child++) {
+				double distance = Math.sqrt(distance2(bounds[level - 1], child, query));
+				if (distance <= best.distance)
+					queue.add(new Candidate(level - 1, child, distance));
+			}
+		}
+	}
+
+	/* Entry of the tree with the distance of its envelope from the query. */
+	private static final class Candidate implements Comparable<Candidate> {
+		final int level;
+		final int entry;
+		final double distance;
+
+		Candidate(int level, int entry, double distance) {
+			this.level = level;
+			this.entry = entry;
+			this.distance = distance;
+		}
+
+		@Override
+		public int compareTo(Candidate other) {
+			return Double.compare(distance, other.distance);
+		}
+	}
+
+	/* Squared distance of entry i of bounds from the query envelope. */
+	private static double distance2(double[] bounds, int i, Envelope query) {
+		double dx = Math.max(0, Math.max(bounds[4 * i] - query.getMaxX(), query.getMinX() - bounds[4 * i + 2]));
+		double dy = Math.max(0, Math.max(bounds[4 * i + 1] - query.getMaxY(), query.getMinY() - bounds[4 * i + 3]));
+		return dx * dx + dy * dy;
+	}
+
+	private static void union(double[] bounds, int first, int count, double[] to, int i) {
+		to[4 * i] = to[4 * i + 1] = Double.POSITIVE_INFINITY;
+		to[4 * i + 2] = to[4 * i + 3] = Double.NEGATIVE_INFINITY;
+		for (int e = first; e < first + count; e++) {
+			to[4 * i] = Math.min(to[4 * i], bounds[4 * e]);
+			to[4 * i + 1] = Math.min(to[4 * i + 1], bounds[4 * e + 1]);
+			to[4 * i + 2] = Math.max(to[4 * i + 2], bounds[4 * e + 2]);
+			to[4 * i + 3] = Math.max(to[4 * i + 3], bounds[4 * e + 3]);
+		}
+	}
+
+	/* Order of the n entries of bounds that packs them into nodes: sorted by the
+	 * x of their centres into ceil(sqrt(nodes)) slices and each slice by y. */
+	private static int[] strOrder(final double[] bounds, int n) {
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		Arrays.sort(order, new CentreComparator(bounds, 0));
+
+		int nodes = (n + NODE_CAPACITY - 1) / NODE_CAPACITY;
+		int sliceSize = NODE_CAPACITY * (int) Math.ceil(Math.sqrt(nodes));
+		for (int start = 0; start < n; start += sliceSize)
+			Arrays.sort(order, start, Math.min(start + sliceSize, n), new CentreComparator(bounds, 1));
+
+		int[] result = new int[n];
+		for (int i = 0; i < n; i++)
+			result[i] = order[i];
+		return result;
+	}
+
+	/* First entry of each node over the n sorted entries of bounds. Nodes do not
+	 * span slices, so every slice starts a new node. */
+	private static List<Integer> groups(double[] bounds, int n) {
+		int nodes = (n + NODE_CAPACITY - 1) / NODE_CAPACITY;
+		int sliceSize = NODE_CAPACITY * (int) Math.ceil(Math.sqrt(nodes));
+		List<Integer> groups = new ArrayList<Integer>();
+		for (int start = 0; start < n; start += sliceSize)
+			for (int i = start; i < Math.min(start + sliceSize, n); i += NODE_CAPACITY)
+				groups.add(i);
+		if (groups.isEmpty())
+			groups.add(0);
+		return groups;
+	}
+
+	private static final class CentreComparator implements Comparator<Integer> {
+		private final double[] bounds;
+		private final int axis;
+
+		CentreComparator(double[] bounds, int axis) {
+			this.bounds = bounds;
+			this.axis = axis;
+		}
+
+		@Override
+		public int compare(Integer a, Integer b) {
+			return Double.compare(bounds[4 * a + axis] + bounds[4 * a + axis + 2], bounds[4 * b + axis] + bounds[4 * b + axis + 2]);
+		}
+	}
+
+	private static double[] permute(double[] bounds, int[] order) {
+		double[] result = new double[bounds.length];
+		for (int i = 0; i < order.length; i++)
+			System.arraycopy(bounds, 4 * order[i], result, 4 * i, 4);
+		return result;
+	}
+
+	private static int[] permute(int[] values, int[] order) {
+		int[] result = new int[order.length];
+		for (int i = 0; i < order.length; i++)
+			result[i] = values[order[i]];
+		return result;
+	}
+}
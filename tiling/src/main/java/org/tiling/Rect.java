@@ -0,0 +1,123 @@
+package org.tiling;
+
+/* Axis-aligned rectangle on the integer grid of a shape.
+ * The coordinates are indices of grid lines, so the cell in column c and
+ * row r spans [c, c+1] x [r, r+1]. The four indices are packed into a single
+ * long, so that equality, hashing, adjacency and merging of two rectangles
+ * are a few integer comparisons instead of JTS topology operations. */
+final class Rect {
+
+	static final int MAX_INDEX = 0xFFFF;
+
+	private static final int BITS = 16;
+	private static final long MASK = 0xFFFFL;
+
+	private final long key;
+
+	private Rect(long key) {
+		this.key = key;
+	}
+
+	/* Rectangle between grid lines x0 and x1 horizontally and y0 and y1 vertically. */
+	static Rect of(int x0, int y0, int x1, int y1) {
+		if (x0 < 0 || y0 < 0 || x1 > MAX_INDEX || y1 > MAX_INDEX || x0 >= x1 || y0 >= y1)
+			throw new IllegalArgumentException("Invalid grid rectangle (" + x0 + " " + y0 + ", " + x1 + " " + y1 + ")");
+		return new Rect(pack(x0, y0, x1, y1));
+	}
+
+	/* Single cell in column col and row row of the grid. */
+	static Rect cell(int col, int row) {
+		return of(col, row, col + 1, row + 1);
+	}
+
+	/* Rectangle with the given packed key, as returned by key(). */
+	static Rect fromKey(long key) {
+		return new Rect(key);
+	}
+
+	private static long pack(int x0, int y0, int x1, int y1) {
+		return ((long) x0 << (3 * BITS)) | ((long) y0 << (2 * BITS)) | ((long) x1 << BITS) | y1;
+	}
+
+	long key() {
+		return key;
+	}
+
+	int x0() {
+		return (int) ((key >>> (3 * BITS)) & MASK);
+	}
+
+	int y0() {
+		return (int) ((key >>> (2 * BITS)) & MASK);
+	}
+
+	int x1() {
+		return (int) ((key >>> BITS) & MASK);
+	}
+
+	int y1() {
+		return (int) (key & MASK);
+	}
+
+	int width() {
+		return x1() - x0();
+	}
+
+	int height() {
+		return y1() - y0();
+	}
+
+	/* Number of grid cells covered by the rectangle. */
+	int area() {
+		return width() * height();
+	}
+
+	/* Return the rectangle covering this and other if the two share
+	 * a complete edge, otherwise return null. */
+	Rect merge(Rect other) {
+		int ax0 = x0(), ay0 = y0(), ax1 = x1(), ay1 = y1();
+		int bx0 = other.x0(), by0 = other.y0(), bx1 = other.x1(), by1 = other.y1();
+
+		if (ay0 == by0 && ay1 == by1) {
+			if (ax1 == bx0)
+				return new Rect(pack(ax0, ay0, bx1, ay1));
+			if (bx1 == ax0)
+				return new Rect(pack(bx0, ay0, ax1, ay1));
+		}
+		else if (ax0 == bx0 && ax1 == bx1) {
+			if (ay1 == by0)
+				return new Rect(pack(ax0, ay0, ax1, by1));
+			if (by1 == ay0)
+				return new Rect(pack(ax0, by0, ax1, ay1));
+		}
+		return null;
+	}
+
+	/* Return true if this and other have a common edge segment of positive
+	 * length, otherwise return false (touching at a corner is not enough). */
+	boolean adjacent(Rect other) {
+		int ax0 = x0(), ay0 = y0(), ax1 = x1(), ay1 = y1();
+		int bx0 = other.x0(), by0 = other.y0(), bx1 = other.x1(), by1 = other.y1();
+
+		if (ax1 == bx0 || bx1 == ax0)
+			return Math.min(ay1, by1) > Math.max(ay0, by0);
+		if (ay1 == by0 || by1 == ay0)
+			return Math.min(ax1, bx1) > Math.max(ax0, bx0);
+		return false;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof Rect && ((Rect) obj).key == key;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (key ^ (key >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return "RECT (" + x0() + " " + y0() + ", " + x1() + " " + y1() + ")";
+	}
+}
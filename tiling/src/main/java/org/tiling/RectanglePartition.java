@@ -0,0 +1,267 @@
+package org.tiling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/* Partition of a set of grid cells into the minimum number of rectangles.
+ *
+ * The cells form a rectilinear polygon, possibly with holes. A minimum partition
+ * is obtained by cutting the polygon along a maximum set of non-intersecting
+ * chords (axis-parallel segments inside the polygon connecting two reflex vertices),
+ * and then cutting vertically from every remaining reflex vertex until the boundary
+ * or another cut.
+ * Horizontal and vertical chords form a bipartite intersection graph, so the maximum
+ * set of non-intersecting chords is its maximum independent set, the complement of
+ * a minimum vertex cover derived from a maximum matching (Konig's theorem).
+ *
+ * The cost is polynomial in the number of cells, so it scales to shapes with
+ * hundreds of cells, but only one of the minimal partitions is returned. */
+final class RectanglePartition {
+
+	private final int width;
+	private final int height;
+	private final boolean[] occupied;
+	// cut along the horizontal grid line y between x and x+1, indexed x + y * width
+	private final boolean[] horizontalCut;
+	// cut along the vertical grid line x between y and y+1, indexed x + y * (width + 1)
+	private final boolean[] verticalCut;
+
+	private RectanglePartition(List<Rect> tiles) {
+		int maxX = 0, maxY = 0;
+		for (Rect rect : tiles) {
+			maxX = Math.max(maxX, rect.x1());
+			maxY = Math.max(maxY, rect.y1());
+		}
+		width = maxX;
+		height = maxY;
+		occupied = new boolean[width * height];
+		for (Rect rect : tiles)
+			for (int y = rect.y0(); y < rect.y1(); y++)
+				for (int x = rect.x0(); x < rect.x1(); x++)
+					occupied[x + y * width] = true;
+		horizontalCut = new boolean[width * (height + 1)];
+		verticalCut = new boolean[(width + 1) * height];
+	}
+
+	/* Return a partition of the cells covered by tiles into the minimum
+	 * number of rectangles. Overlapping tiles are covered once. */
+	static List<Rect> partition(List<Rect> tiles) {
+		if (tiles.isEmpty())
+			return new ArrayList<Rect>();
+
+		RectanglePartition partition = new RectanglePartition(tiles);
+		partition.cutAlongChords();
+		partition.cutFromReflexVertices();
+		return partition.rectangles();
+	}
+
+	private boolean occupied(int x, int y) {
+		return x >= 0 && y >= 0 && x < width && y < height && occupied[x + y * width];
+	}
+
+	/* Number of occupied cells around grid point (x, y). */
+	private int occupiedAround(int x, int y) {
+		int count = 0;
+		if (occupied(x - 1, y - 1)) count++;
+		if (occupied(x, y - 1)) count++;
+		if (occupied(x - 1, y)) count++;
+		if (occupied(x, y)) count++;
+		return count;
+	}
+
+	private boolean reflex(int x, int y) {
+		return occupiedAround(x, y) == 3;
+	}
+
+	/* True if the segment of the horizontal grid line y between x and x+1 is inside the polygon. */
+	private boolean horizontalInside(int x, int y) {
+		return occupied(x, y - 1) && occupied(x, y);
+	}
+
+	/* True if the segment of the vertical grid line x between y and y+1 is inside the polygon. */
+	private boolean verticalInside(int x, int y) {
+		return occupied(x - 1, y) && occupied(x, y);
+	}
+
+	private boolean cutAt(int x, int y) {
+		return (x > 0 && y <= height && horizontalCut[x - 1 + y * width])
+				|| (x < width && y <= height && horizontalCut[x + y * width])
+				|| (y > 0 && x <= width && verticalCut[x + (y - 1) * (width + 1)])
+				|| (y < height && x <= width && verticalCut[x + y * (width + 1)]);
+	}
+
+	/* Cut along a maximum set of non-intersecting chords.
+	 * Chords are stored as {fixed coordinate, start, end}. */
+	private void cutAlongChords() {
+		List<int[]> horizontal = new ArrayList<int[]>();
+		List<int[]> vertical = new ArrayList<int[]>();
+
+		for (int y = 0; y <= height; y++) {
+			for (int x = 0; x <= width; x++) {
+				if (!reflex(x, y))
+					continue;
+				// Walk right and up only, so every chord is found once
+				int end = x;
+				while (horizontalInside(end, y))
+					end++;
+				if (end > x && reflex(end, y))
+					horizontal.add(new int[] {y, x, end});
+				end = y;
+				while (verticalInside(x, end))
+					end++;
+				if (end > y && reflex(x, end))
+					vertical.add(new int[] {x, y, end});
+			}
+		}
+
+		// Intersection graph: horizontal chord h and vertical chord v intersect,
+		// including common end points
+		int[][] edges = new int[horizontal.size()][];
+		for (int h = 0; h < horizontal.size(); h++) {
+			int[] hChord = horizontal.get(h);
+			int[] adjacent = new int[vertical.size()];
+			int count = 0;
+			for (int v = 0; v < vertical.size(); v++) {
+				int[] vChord = vertical.get(v);
+				if (vChord[0] >= hChord[1] && vChord[0] <= hChord[2] && hChord[0] >= vChord[1] && hChord[0] <= vChord[2])
+					adjacent[count++] = v;
+			}
+			edges[h] = Arrays.copyOf(adjacent, count);
+		}
+
+		int[] matchOfVertical = new int[vertical.size()];
+		int[] matchOfHorizontal = new int[horizontal.size()];
+		Arrays.fill(matchOfVertical, -1);
+		Arrays.fill(matchOfHorizontal, -1);
+		for (int h = 0; h < horizontal.size(); h++)
+			augment(h, edges, matchOfHorizontal, matchOfVertical, new boolean[vertical.size()]);
+
+		// Konig: Z = vertices reachable from unmatched horizontal chords along alternating paths.
+		// The maximum independent set is (horizontal in Z) + (vertical not in Z).
+		boolean[] horizontalInZ = new boolean[horizontal.size()];
+		boolean[] verticalInZ = new boolean[vertical.size()];
+		for (int h = 0; h < horizontal.size(); h++)
+			if (matchOfHorizontal[h] == -1)
+				alternate(h, edges, matchOfVertical, horizontalInZ, verticalInZ);
+
+		for (int h = 0; h < horizontal.size(); h++) {
+			if (!horizontalInZ[h])
+				continue;
+			int[] chord = horizontal.get(h);
+			for (int x = chord[1]; x < chord[2]; x++)
+				horizontalCut[x + chord[0] * width] = true;
+		}
+		for (int v = 0; v < vertical.size(); v++) {
+			if (verticalInZ[v])
+				continue;
+			int[] chord = vertical.get(v);
+			for (int y = chord[1]; y < chord[2]; y++)
+				verticalCut[chord[0] + y * (width + 1)] = true;
+		}
+	}
+
+	/* Kuhn's augmenting path search from horizontal chord h. */
+	private static boolean augment(int h, int[][] edges, int[] matchOfHorizontal, int[] matchOfVertical, boolean[] visited) {
+		for (int v : edges[h]) {
+			if (visited[v])
+				continue;
+			visited[v] = true;
+			if (matchOfVertical[v] == -1 || augment(matchOfVertical[v], edges, matchOfHorizontal, matchOfVertical, visited)) {
+				matchOfVertical[v] = h;
+				matchOfHorizontal[h] = v;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void alternate(int h, int[][] edges, int[] matchOfVertical, boolean[] horizontalInZ, boolean[] verticalInZ) {
+		if (horizontalInZ[h])
+			return;
+		horizontalInZ[h] = true;
+		for (int v : edges[h]) {
+			if (verticalInZ[v])
+				continue;
+			verticalInZ[v] = true;
+			if (matchOfVertical[v] != -1)
+				alternate(matchOfVertical[v], edges, matchOfVertical, horizontalInZ, verticalInZ);
+		}
+	}
+
+	/* Cut vertically from every reflex vertex that no cut touches yet,
+	 * until the boundary or another cut is reached. */
+	private void cutFromReflexVertices() {
+		for (int y = 0; y <= height; y++) {
+			for (int x = 0; x <= width; x++) {
+				if (!reflex(x, y) || cutAt(x, y))
+					continue;
+				// One of the two vertical directions points into the polygon
+				int step = verticalInside(x, y) ? 1 : -1;
+				int cellY = step == 1 ? y : y - 1;
+				int pointY = y;
+				do {
+					verticalCut[x + cellY * (width + 1)] = true;
+					pointY += step;
+					cellY += step;
+				} while (occupiedAround(x, pointY) == 4 && !cutAtExcept(x, pointY, step));
+			}
+		}
+	}
+
+	/* True if a cut touches grid point (x, y), ignoring the vertical cut
+	 * that reached it moving in direction step. */
+	private boolean cutAtExcept(int x, int y, int step) {
+		return (x > 0 && horizontalCut[x - 1 + y * width])
+				|| (x < width && horizontalCut[x + y * width])
+				|| (step == -1 && y > 0 && verticalCut[x + (y - 1) * (width + 1)])
+				|| (step == 1 && y < height && verticalCut[x + y * (width + 1)]);
+	}
+
+	/* Collect the regions bounded by the polygon boundary and the cuts,
+	 * each of which is a rectangle. */
+	private List<Rect> rectangles() {
+		List<Rect> rects = new ArrayList<Rect>();
+		boolean[] visited = new boolean[width * height];
+		int[] stack = new int[width * height];
+
+		for (int start = 0; start < occupied.length; start++) {
+			if (!occupied[start] || visited[start])
+				continue;
+
+			int minX = width, minY = height, maxX = 0, maxY = 0, cells = 0, size = 0;
+			stack[size++] = start;
+			visited[start] = true;
+			while (size > 0) {
+				int cell = stack[--size];
+				int x = cell % width, y = cell / width;
+				minX = Math.min(minX, x);
+				minY = Math.min(minY, y);
+				maxX = Math.max(maxX, x + 1);
+				maxY = Math.max(maxY, y + 1);
+				cells++;
+				if (occupied(x + 1, y) && !verticalCut[x + 1 + y * (width + 1)] && !visited[cell + 1]) {
+					visited[cell + 1] = true;
+					stack[size++] = cell + 1;
+				}
+				if (occupied(x - 1, y) && !verticalCut[x + y * (width + 1)] && !visited[cell - 1]) {
+					visited[cell - 1] = true;
+					stack[size++] = cell - 1;
+				}
+				if (occupied(x, y + 1) && !horizontalCut[x + (y + 1) * width] && !visited[cell + width]) {
+					visited[cell + width] = true;
+					stack[size++] = cell + width;
+				}
+				if (occupied(x, y - 1) && !horizontalCut[x + y * width] && !visited[cell - width]) {
+					visited[cell - width] = true;
+					stack[size++] = cell - width;
+				}
+			}
+
+			if (cells != (maxX - minX) * (maxY - minY))
+				throw new IllegalStateException("Partition region is not a rectangle");
+			rects.add(Rect.of(minX, minY, maxX, maxY));
+		}
+		return rects;
+	}
+}
@@ -0,0 +1,25 @@
+package org.tiling;
+
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.util.AffineTransformation;
+
+/* Envelopes of the inner cells of a single shape. */
+final class Shape {
+
+	final String id;
+	final List<Envelope> cells;
+	// Transformation of the cells to world coordinates, null if they are in world coordinates
+	final AffineTransformation frame;
+
+	Shape(String id, List<Envelope> cells) {
+		this(id, cells, null);
+	}
+
+	Shape(String id, List<Envelope> cells, AffineTransformation frame) {
+		this.id = id;
+		this.cells = cells;
+		this.frame = frame;
+	}
+}
@@ -0,0 +1,17 @@
+package org.tiling;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/* Destination of the rectangles generated for each shape. */
+interface ShapeSink extends Closeable {
+
+	/* Write the rectangles of all combinations of a shape. */
+	void write(List<Cell> newCells) throws IOException;
+
+	/* Complete the output once every shape is written. A sink closed without
+	 * it, e.g. on a failed run, leaves its output marked as incomplete where
+	 * the format allows. */
+	void finish() throws IOException;
+}
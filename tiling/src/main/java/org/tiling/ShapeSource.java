@@ -0,0 +1,11 @@
+package org.tiling;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/* Source of shapes, each one with all of its cells. */
+interface ShapeSource extends Closeable {
+
+	/* Return the next shape, or null when there are no more shapes. */
+	Shape next() throws IOException;
+}
@@ -0,0 +1,82 @@
+package org.tiling;
+
+import java.io.IOException;
+
+/* Shard i of N of the shapes, for tiling a dataset on N machines or processes
+ * with --shard i/N and merging their outputs with ShardMerge.
+ * Shapes with an integer id go to shard id mod N, which the scripts compute in
+ * SQL too to export the input of every shard, and other ids by their hash code.
+ * As a source, it passes on the shapes or polygons of this shard only. */
+final class Shard implements ShapeSource, PolygonSource {
+
+	private final int index;
+	private final int count;
+	private ShapeSource shapes;
+	private PolygonSource polygons;
+
+	private Shard(int index, int count) {
+		this.index = index;
+		this.count = count;
+	}
+
+	/* Parse i/N, throwing IllegalArgumentException if it is not a shard of 0 <= i < N. */
+	static Shard parse(String option, String value) {
+		int slash = value.indexOf('/');
+		if (slash < 0)
+			throw new IllegalArgumentException("Option " + option + " expects i/N, got " + value);
+		int index = Options.intValue(option, value.substring(0, slash));
+		int count = Options.intValue(option, value.substring(slash + 1));
+		if (count < 1 || index < 0 || index >= count)
+			throw new IllegalArgumentException("Option " + option + " expects i/N with 0 <= i < N, got " + value);
+		return new Shard(index, count);
+	}
+
+	/* Shard of shapeId among count shards. */
+	static int of(String shapeId, int count) {
+		long hash;
+		try {
+			hash = Long.parseLong(shapeId);
+		} catch (NumberFormatException e) {
+			hash = shapeId.hashCode();
+		}
+		return (int) (((hash % count) + count) % count);
+	}
+
+	boolean contains(String shapeId) {
+		return of(shapeId, count) == index;
+	}
+
+	/* The shapes or polygons of source in this shard. */
+	<S extends ShapeSource & PolygonSource> Shard filter(S source) {
+		Shard shard = new Shard(index, count);
+		shard.shapes = source;
+		shard.polygons = source;
+		return shard;
+	}
+
+	@Override
+	public Shape next() throws IOException {
+		Shape shape;
+		while ((shape = shapes.next()) != null && !contains(shape.id))
+			;
+		return shape;
+	}
+
+	@Override
+	public Cell nextPolygon() throws IOException {
+		Cell polygon;
+		while ((polygon = polygons.nextPolygon()) != null && !contains(polygon.getShapeId()))
+			;
+		return polygon;
+	}
+
+	@Override
+	public void close() {
+		// The source is closed by whoever opened it
+	}
+
+	@Override
+	public String toString() {
+		return index + "/" + count;
+	}
+}
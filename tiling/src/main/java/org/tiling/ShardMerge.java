@@ -0,0 +1,276 @@
+package org.tiling;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.opencsv.CSVReader;
+import com.opencsv.CSVWriter;
+import com.opencsv.exceptions.CsvValidationException;
+
+/* Merges the outputs of Tiling run with --shard i/N for every shard into the
+ * output a single run over all shapes writes:
+ * ShardMerge <output file> <shard output file>...
+ * The shard outputs must be all csv, with the same columns, or all binary, in
+ * the same layout, which the output gets too. Each one must be ordered by
+ * shape id, as Tiling writes them for inputs ordered by id like the scripts
+ * export them, and the shapes are merged by id, integer ids in numeric order,
+ * so the output equals the output of the whole input. That holds with a cache
+ * too, since ComboScore ranks the combinations of a shape on the shape alone,
+ * and only shapes out of a time budget may differ, as between any two runs. */
+final class ShardMerge {
+
+	static final String USAGE = "Usage: ShardMerge <output file> <shard output file>...";
+
+	private ShardMerge() {
+	}
+
+	/* Rows of a shard output, read forward one at a time. */
+	private abstract static class Cursor implements Comparable<Cursor>, Closeable {
+		final String file;
+		// Shape id of the current row, null past the last row
+		String shapeId;
+		private boolean numeric;
+		private long number;
+
+		Cursor(String file) {
+			this.file = file;
+		}
+
+		/* Move to the next row, checking that the shapes are ordered by id. */
+		final void advance() throws IOException {
+			String previous = shapeId;
+			boolean previousNumeric = numeric;
+			long previousNumber = number;
+			shapeId = next();
+			if (shapeId == null || shapeId.equals(previous))
+				return;
+			try {
+				number = Long.parseLong(shapeId);
+				numeric = true;
+			} catch (NumberFormatException e) {
+				numeric = false;
+			}
+			if (previous != null && compare(previousNumeric, previousNumber, previous, numeric, number, shapeId) > 0)
+				throw new IOException(file + " is not ordered by shape id at shape " + shapeId
+						+ ", the shards must be tiled from inputs ordered by id");
+		}
+
+		/* Shape id of the next row, or null if there are none. */
+		abstract String next() throws IOException;
+
+		/* Copy the current row to the output. */
+		abstract void copy() throws IOException;
+
+		@Override
+		public int compareTo(Cursor other) {
+			return compare(numeric, number, shapeId, other.numeric, other.number, other.shapeId);
+		}
+
+		private static int compare(boolean aNumeric, long a, String aId, boolean bNumeric, long b, String bId) {
+			return aNumeric && bNumeric ? Long.compare(a, b) : aId.compareTo(bId);
+		}
+	}
+
+	private static final class CsvCursor extends Cursor {
+		private final CSVReader reader;
+		private final CSVWriter writer;
+		private final String[] header;
+		private String[] line;
+
+		CsvCursor(String file, CSVWriter writer) throws IOException {
+			super(file);
+			this.writer = writer;
+			reader = new CSVReader(new FileReader(file));
+			try {
+				header = reader.readNext();
+			} catch (CsvValidationException e) {
+				reader.close();
+				throw new IOException("Invalid header in " + file, e);
+			}
+			if (header == null) {
+				reader.close();
+				throw new IOException(file + " is empty");
+			}
+		}
+
+		@Override
+		String next() throws IOException {
+			try {
+				line = reader.readNext();
+			} catch (CsvValidationException e) {
+				throw new IOException("Invalid line " + reader.getLinesRead() + " of " + file, e);
+			}
+			if (line == null)
+				return null;
+			if (line.length < header.length)
+				throw new IOException("Missing column on line " + reader.getLinesRead() + " of " + file);
+			return line[0];
+		}
+
+		@Override
+		void copy() {
+			writer.writeNext(line);
+		}
+
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+
+	private static final class BinaryCursor extends Cursor {
+		private final BinaryReader reader;
+		private final BinarySink sink;
+		private long record = -1;
+
+		BinaryCursor(String file, BinaryReader reader, BinarySink sink) {
+			super(file);
+			this.reader = reader;
+			this.sink = sink;
+		}
+
+		@Override
+		String next() {
+			return ++record < reader.size() ? String.valueOf(reader.shapeId(record)) : null;
+		}
+
+		@Override
+		void copy() throws IOException {
+			sink.write(reader.shapeId(record), reader.comboId(record),
+					reader.minX(record), reader.minY(record), reader.maxX(record), reader.maxY(record));
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/* Merge the shard outputs into outputFile and return the number of rows written.
+	 * If the merge fails, e.g. on a shard not ordered by id, outputFile is deleted,
+	 * so that no truncated output is left to pass for a complete one. */
+	static long merge(String outputFile, List<String> shardFiles) throws IOException {
+		try {
+			if (BinaryReader.isBinary(shardFiles.get(0)))
+				return mergeBinary(outputFile, shardFiles);
+			return mergeCsv(outputFile, shardFiles);
+		} catch (IOException | RuntimeException e) {
+			new File(outputFile).delete();
+			throw e;
+		}
+	}
+
+	private static long mergeCsv(String outputFile, List<String> shardFiles) throws IOException {
+
+		List<Cursor> cursors = new ArrayList<Cursor>();
+		try (CSVWriter writer = new CSVWriter(new FileWriter(outputFile))) {
+			try {
+				String[] header = null;
+				for (String file : shardFiles) {
+					if (BinaryReader.isBinary(file))
+						throw new IOException(file + " is binary, unlike " + shardFiles.get(0));
+					CsvCursor cursor = new CsvCursor(file, writer);
+					cursors.add(cursor);
+					if (header == null)
+						header = cursor.header;
+					else if (!Arrays.equals(header, cursor.header))
+						throw new IOException(file + " has other columns than " + shardFiles.get(0));
+				}
+				writer.writeNext(header);
+				long rows = merge(cursors);
+				if (writer.checkError())
+					throw new IOException("Failed to write " + outputFile);
+				return rows;
+			} finally {
+				for (Cursor cursor : cursors)
+					cursor.close();
+			}
+		}
+	}
+
+	private static long mergeBinary(String outputFile, List<String> shardFiles) throws IOException {
+		List<BinaryReader> readers = new ArrayList<BinaryReader>();
+		for (String file : shardFiles) {
+			if (!BinaryReader.isBinary(file))
+				throw new IOException(file + " is not binary, unlike " + shardFiles.get(0));
+			BinaryReader reader = new BinaryReader(file);
+			if (!readers.isEmpty() && reader.layout() != readers.get(0).layout())
+				throw new IOException(file + " has another layout than " + shardFiles.get(0));
+			readers.add(reader);
+		}
+		try (BinarySink sink = new BinarySink(outputFile, readers.get(0).layout())) {
+			List<Cursor> cursors = new ArrayList<Cursor>();
+			for (int s = 0; s < readers.size(); s++)
+				cursors.add(new BinaryCursor(shardFiles.get(s), readers.get(s), sink));
+			long rows = merge(cursors);
+			sink.finish();
+			return rows;
+		}
+	}
+
+	/* Copy the shapes of the cursors in order of id, every shape with all of its rows. */
+	private static long merge(List<Cursor> cursors) throws IOException {
+		PriorityQueue<Cursor> queue = new PriorityQueue<Cursor>(Math.max(1, cursors.size()));
+		for (Cursor cursor : cursors) {
+			cursor.advance();
+			if (cursor.shapeId != null)
+				queue.add(cursor);
+		}
+
+		long rows = 0;
+		String last = null;
+		Cursor lastCursor = null;
+		while (!queue.isEmpty()) {
+			Cursor cursor = queue.poll();
+			String shapeId = cursor.shapeId;
+			if (shapeId.equals(last))
+				throw new IOException("Shape " + shapeId + " is in both " + lastCursor.file + " and " + cursor.file);
+			do {
+				cursor.copy();
+				rows++;
+				cursor.advance();
+			} while (shapeId.equals(cursor.shapeId));
+			if (cursor.shapeId != null)
+				queue.add(cursor);
+			last = shapeId;
+			lastCursor = cursor;
+		}
+		return rows;
+	}
+
+	public static void main(String[] args) {
+		List<String> files = new ArrayList<String>();
+		try {
+			for (String arg : args) {
+				if (arg.startsWith("--"))
+					throw new IllegalArgumentException("Unknown option " + arg);
+				files.add(arg);
+			}
+			if (files.size() < 2)
+				throw new IllegalArgumentException("Missing output or shard output files");
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(1);
+			return;
+		}
+
+		long start = System.nanoTime();
+		long rows;
+		try {
+			rows = merge(files.get(0), files.subList(1, files.size()));
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+			return;
+		}
+		System.out.println("Merged " + rows + " rows of " + (files.size() - 1) + " shard outputs into " + files.get(0)
+				+ " in " + (System.nanoTime() - start) / 1000000 + " ms");
+	}
+}
@@ -0,0 +1,36 @@
+package org.tiling;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/* Strategies computing the rectangle combinations of a shape. */
+enum Solver {
+
+	/* Iterative merge rounds of Tiling.generateRectangles.
+	 * Returns all combinations with the fewest rectangles found, 
+	 * but its cost explodes with the number of cells. */
+	MERGE {
+		@Override
+		List<List<Rect>> solve(List<Rect> origTiles, int desiredNumOfTiles, String shapeId, Budget budget) {
+			return Tiling.generateRectangles(origTiles, desiredNumOfTiles, shapeId, budget);
+		}
+	},
+
+	/* Minimum rectangle partition of the cells (RectanglePartition).
+	 * Returns a single combination with the fewest rectangles, 
+	 * in polynomial time in the number of cells, so it needs no budget. */
+	PARTITION {
+		@Override
+		List<List<Rect>> solve(List<Rect> origTiles, int desiredNumOfTiles, String shapeId, Budget budget) {
+			List<List<Rect>> largestTileCombos = new ArrayList<List<Rect>>();
+			largestTileCombos.add(RectanglePartition.partition(origTiles));
+			return Tiling.largestTiles(largestTileCombos, largestTileCombos.get(0).size(), desiredNumOfTiles, shapeId);
+		}
+	};
+
+	/* Return the rectangle combinations of the contiguous tiles origTiles 
+	 * of shape shapeId, or the ones with desiredNumOfTiles largest rectangles
+	 * if desiredNumOfTiles is not -1. Once budget is exhausted, return the best 
+	 * combinations found so far, and budget.exceeded() tells which limit was hit. */
+	abstract List<List<Rect>> solve(List<Rect> origTiles, int desiredNumOfTiles, String shapeId, Budget budget);
+}
@@ -0,0 +1,13 @@
+package org.tiling;
+
+import java.util.Comparator;
+
+class SortByArea implements Comparator<Rect> {
+
+	/* Sort in descending order of rectangle area */
+	@Override
+	public int compare(Rect a, Rect b) {
+		return Integer.compare(b.area(), a.area());
+	}
+	
+}
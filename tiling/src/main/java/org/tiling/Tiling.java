@@ -1,101 +1,47 @@
 package org.tiling;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import com.opencsv.CSVParser;
-import com.opencsv.CSVParserBuilder;
-import com.opencsv.CSVReader;
-import com.opencsv.CSVReaderBuilder;
-import com.opencsv.CSVWriter;
-import com.opencsv.exceptions.CsvValidationException;
-import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.LineSegment;
-import com.vividsolutions.jts.io.ParseException;
-import com.vividsolutions.jts.io.WKBReader;
-import com.vividsolutions.jts.io.WKTReader;
+import com.vividsolutions.jts.geom.util.AffineTransformation;
 
-class SortByArea implements Comparator<Geometry> {
-
-	/* Sort in descending order of geometry area */
-	@Override
-	public int compare(Geometry a, Geometry b) {
-		return (int) (b.getArea() - a.getArea());
-	}
-	
-}
-
-class Cell {
-	public Geometry getGeom() {
-		return wkt;
-	}
-	
-	public String getWKB() {
-		return wkb.toString();
-	}
-	
-	public String getWKT() {
-		return wkt.toString();
-	}
-
-	public String getShapeId() {
-		return shapeId;
-	}
-
-	public String getComboId() {
-		return comboId;
-	}
-
-	private String shapeId;
-	private String comboId;
-	private Geometry wkb;
-	private Geometry wkt;
-	static WKBReader readerWKB = new WKBReader();
-	static WKTReader readerWKT = new WKTReader();
+class Tiling {
 	
-	public Cell(String shapeId, String cellWKB, String cellWKT) {
-		super();
-		this.shapeId = shapeId.trim();
-		try {
-			this.wkb = readerWKB.read(WKBReader.hexToBytes(cellWKB.trim()));
-			this.wkt = readerWKT.read(cellWKT.trim());
-		} catch (ParseException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-	}
+	/* Print the tiles and the combinations of every shape, with --verbose */
+	static volatile boolean verbose = false;
 	
-	public Cell(String shapeId, String comboId, Geometry geom) {
-		super();
-		this.shapeId = shapeId.trim();
-		this.comboId = comboId;
-		this.wkt = geom;
-	}
-	
-	@Override
-	public String toString() {
-//		return "Cell [shape id=" + shapeId + ", combo id=" + comboId + ", wkb=" + wkb.toString() + ", wkt=" + wkt + "]";
-		return "Cell [shape id=" + shapeId + ", combo id=" + comboId + ", wkt=" + wkt + "]";
-	}
-}
-
-class Tiling {
+	// Shapes split into parts and shapes out of budget, summed up once by tileShapes
+	private static final AtomicInteger splitShapes = new AtomicInteger();
+	private static final AtomicInteger budgetShapes = new AtomicInteger();
 	
 	/* Input: list of contiguous rectangles. 
 	 * Output: list of all possible rectangle combinations covering the input area. 
 	 * The combinations arise from the input rectangles and from bigger rectangles 
 	 * derived by combining the input rectangles vertically or horizontally. */
-	static List<List<Geometry>> combineTiles (List<Geometry> inputRectangles) {
+	static List<List<Rect>> combineTiles (List<Rect> inputRectangles) {
+		return combineTiles(inputRectangles, Budget.UNLIMITED);
+	}
+	
+	/* Same as combineTiles, but stop combining once budget is exhausted, 
+	 * returning only the combinations found until then. */
+	static List<List<Rect>> combineTiles (List<Rect> inputRectangles, Budget budget) {
 		
-    	List<List<Geometry>> allCombos = new ArrayList<List<Geometry>>();
+    	ComboSet allCombos = new ComboSet();
     	
     	if (inputRectangles.size() == 0 || inputRectangles.size() == 1) {
     		allCombos.add(inputRectangles);
@@ -103,27 +49,13 @@ class Tiling {
     	
     	// If the two rectangles share an edge then merge them
     	else if (inputRectangles.size() == 2 && !inputRectangles.get(0).equals(inputRectangles.get(1))) {
-    		List<Geometry> newCombo = new ArrayList<Geometry>();
+    		List<Rect> newCombo = new ArrayList<Rect>();
     		allCombos.add(inputRectangles);
-    		Coordinate[] coords = inputRectangles.get(0).getCoordinates();
-    		List<LineSegment> firstRectEdges = new ArrayList<LineSegment>();
-    		for (int i = 0; i < coords.length - 1; i++) {
-    			firstRectEdges.add(new LineSegment(coords[i], coords[i+1]));
+    		Rect mergedRect = inputRectangles.get(0).merge(inputRectangles.get(1));
+    		if (mergedRect != null) {
+    			newCombo.add(mergedRect);
+    			allCombos.add(newCombo);
     		}
-    		coords = inputRectangles.get(1).getCoordinates();
-    		LineSegment secondRectEdge;
-    		for (int i = 0; i < coords.length - 1; i++) {
-    			secondRectEdge = new LineSegment(coords[i], coords[i+1]);
-       			if (!firstRectEdges.contains(secondRectEdge)) {
-    				secondRectEdge.reverse();
-    				if (!firstRectEdges.contains(secondRectEdge)) {
-    					continue;
-    				}
-    			}
-       			newCombo.add(inputRectangles.get(0).union(inputRectangles.get(1)).convexHull());
-	    		allCombos.add(newCombo);
-	    		break;
-       		}
     	}
     	
     	// Algorithm for more than two rectangles:
@@ -136,30 +68,37 @@ class Tiling {
     	//       Add to the result newC together with the rest of the previous combination's rectangles
     	// NO:    Add to the combinations the rest of the previous combination's rectangles
     	else if (inputRectangles.size() > 2) {
-    		Geometry firstRectangle = inputRectangles.remove(0);
-    		List<List<Geometry>> combos = combineTiles(inputRectangles);
+    		Rect firstRectangle = inputRectangles.remove(0);
+    		List<List<Rect>> combos = combineTiles(inputRectangles, budget);
     		int c = combos.size() - 1;
-    		List<Geometry> tempCombo;
+    		List<Rect> tempCombo;
     		while (c >= 0) {		// for each combination
+    			if (budget.exhausted()) {
+    				// Keep the combinations left as they are, with the first rectangle unmerged,
+    				// so the rectangles merged by the recursion are not lost
+    				for (; c >= 0; c--) {
+    					tempCombo = combos.remove(c);
+    					tempCombo.add(firstRectangle);
+    					allCombos.add(tempCombo);
+    				}
+    				break;
+    			}
     			tempCombo = combos.remove(c);
     			int p = tempCombo.size() - 1;
     			while (p >= 0) {	// for each rectangle
-    				List<Geometry> newCombo = new ArrayList<Geometry>();
-    				Geometry tempRectangle = tempCombo.remove(p);
+    				List<Rect> newCombo = new ArrayList<Rect>();
+    				Rect tempRectangle = tempCombo.remove(p);
     				newCombo.add(firstRectangle);
     				newCombo.add(tempRectangle);
-    				List<List<Geometry>> newCombos = combineTiles(newCombo);
+    				List<List<Rect>> newCombos = combineTiles(newCombo, budget);
     				// add all rectangles of the tempCombo not included in the newCombo
     				for (int i = 0; i < newCombos.size(); i++) {
     					newCombos.get(i).addAll(tempCombo);
     				}
     				tempCombo.add(tempRectangle);
     				
-    				for (List<Geometry> temp: newCombos) {
-    					if (!containment(allCombos, temp)) {
-    						allCombos.add(temp);
-    					}
-    				}
+    				allCombos.addAll(newCombos);
+    				budget.spend(newCombos);
     				
     				p--;
     			}
@@ -169,33 +108,10 @@ class Tiling {
     		inputRectangles.add(firstRectangle);
     	}
     	
-    	return allCombos;
+    	return allCombos.list();
     }
 	
 	
-	/* Return true if List allCombos contains List newCombo, 
-	 * otherwise return false. */ 
-	static boolean containment(List<List<Geometry>> allCombos, List<Geometry> newCombo) {
-		boolean containment = false;
-		for (List<Geometry> combo: allCombos) {
-			containment = false;
-			if (combo.size() != newCombo.size())
-				continue;
-			for (Geometry geom: combo) {
-				for (Geometry newGeom: newCombo) {
-					containment = false;
-					if (geom.equals(newGeom)) {
-						containment = true;
-						break;
-					}
-				}
-				if (!containment) break;
-			}
-			if (containment) break;
-		}
-		return containment;
-	}
-	
 //	/* Return true if geometries in combo are contiguous, 
 //	 * otherwise return false. */ 
 //	static boolean contiguity(List<Geometry> combo) {
@@ -230,114 +146,221 @@ class Tiling {
 //	}
 	
 	
-	/* Return true if geometries in combo are contiguous, 
-	 * otherwise return false. */ 
-	static boolean contiguity(List<Geometry> contTiles) {
-		if (contTiles.size() == 1)
+	/* Return true if the rectangles in contTiles are contiguous, 
+	 * otherwise return false. The rectangles are drawn on the cell mask 
+	 * of the thread, so the check allocates nothing. */ 
+	static boolean contiguity(List<Rect> contTiles) {
+		if (contTiles.size() <= 1)
 			return true;
 		
-		List<Geometry> restTiles = new ArrayList<Geometry>(contTiles);
-		contTiles.clear();
-		contTiles.add(restTiles.remove(0));
-		
+		int width = 0, height = 0;
 		for (int i = 0; i < contTiles.size(); i++) {
-			for (Geometry geom: restTiles) {
-				if (contTiles.get(i).intersection(geom).toString().contains("LINESTRING")) {
-					contTiles.add(geom);
+			width = Math.max(width, contTiles.get(i).x1());
+			height = Math.max(height, contTiles.get(i).y1());
+		}
+		
+		CellMask mask = CellMask.local(width, height);
+		for (int i = 0; i < contTiles.size(); i++)
+			mask.add(contTiles.get(i));
+		return mask.connected();
+	}
+	
+	/* Return the rectangles of tiles in breadth-first order of adjacency,
+	 * starting from the first one. Rectangles not reached are left out. */
+	static List<Rect> breadthFirst(List<Rect> tiles) {
+		List<Rect> ordered = new ArrayList<Rect>(tiles.size());
+		if (tiles.isEmpty())
+			return ordered;
+		
+		List<Rect> restTiles = new ArrayList<Rect>(tiles);
+		ordered.add(restTiles.remove(0));
+		for (int i = 0; i < ordered.size(); i++) {
+			for (Iterator<Rect> it = restTiles.iterator(); it.hasNext(); ) {
+				Rect rect = it.next();
+				if (ordered.get(i).adjacent(rect)) {
+					ordered.add(rect);
+					it.remove();
 				}
 			}
-			restTiles.removeAll(contTiles);
 		}
+		return ordered;
+	}
+	
+	/* Contiguous combinations covering the largest area found so far. */
+	static final class BestCombos {
+		long area;
+		final List<List<Rect>> combos = new ArrayList<List<Rect>>();
 		
-		if (restTiles.size() > 0)
-			return false;
-		
-		return true;
+		BestCombos(long area) {
+			this.area = area;
+		}
 	}
 	
-	/* Return true if maxArea is the area covered by the bigger geometry in combo,
-	 * otherwise return false. */ 
-	static boolean maxArea(List<Geometry> combo, int maxArea) {
-		int area = 0;
-		for (Geometry geom: combo) 
-			area += geom.getArea();
-		if (maxArea == area)
-			return true;
-		return false;
+	/* Rectangles of a combination sorted by decreasing area, with their areas in cells, 
+	 * the prefix sums of the areas and their adjacency, computed once per combination, 
+	 * and the indices of the subset being enumerated. Subsets are checked on these arrays 
+	 * and only turned into lists once they are contiguous and cover the most cells. */
+	static final class Subsets {
+		final List<Rect> rects;
+		final long[] areas;
+		// sums[i] is the area covered by the first i rectangles
+		final long[] sums;
+		final boolean[][] adjacent;
+		final int[] chosen;
+		// Breadth-first search of the contiguity check, over positions in chosen
+		private final int[] queue;
+		private final boolean[] reached;
+		
+		Subsets(List<Rect> rects, int size) {
+			int n = rects.size();
+			this.rects = rects;
+			areas = new long[n];
+			sums = new long[n + 1];
+			adjacent = new boolean[n][n];
+			for (int i = 0; i < n; i++) {
+				areas[i] = rects.get(i).area();
+				sums[i + 1] = sums[i] + areas[i];
+				for (int j = 0; j < i; j++)
+					adjacent[i][j] = adjacent[j][i] = rects.get(i).adjacent(rects.get(j));
+			}
+			chosen = new int[size];
+			queue = new int[size];
+			reached = new boolean[size];
+		}
+		
+		/* Return true if the rectangles chosen are contiguous. */
+		boolean contiguous() {
+			int size = chosen.length;
+			if (size <= 1)
+				return true;
+			for (int p = 0; p < size; p++)
+				reached[p] = false;
+			reached[0] = true;
+			queue[0] = 0;
+			int head = 0, tail = 1;
+			while (head < tail) {
+				boolean[] neighbours = adjacent[chosen[queue[head++]]];
+				for (int p = 1; p < size; p++) {
+					if (!reached[p] && neighbours[chosen[p]]) {
+						reached[p] = true;
+						queue[tail++] = p;
+					}
+				}
+			}
+			return tail == size;
+		}
+		
+		/* The rectangles chosen, in breadth-first order of adjacency. */
+		List<Rect> combo() {
+			List<Rect> combo = new ArrayList<Rect>(chosen.length);
+			for (int p = 0; p < chosen.length; p++)
+				combo.add(rects.get(chosen[p]));
+			return breadthFirst(combo);
+		}
 	}
 	
-	/* List<Geometry> combo --> Input list
-	 * List data --> Temporary array to store current combination 
-	 * start & end --> Staring and Ending indexes in combo
-	 * index --> Current index in data 
-	 * maxSize ---> Size of a combination to be returned 
-	 * allCombos --> Combinations to be returned 
-	 * area --> Necessary area to be covered by a rectangle in the combination in order to be accepted */
-	static void combinationUtil(List<Geometry> combo, Geometry data[], int start, int end, int index, int maxSize, 
-			List<List<Geometry>> allCombos, int area) {
+	/* Subsets subsets --> Rectangles sorted by decreasing area, and the subset being built
+	 * start --> Index in subsets.rects of the next candidate
+	 * index --> Current index in subsets.chosen 
+	 * area --> Area covered by the rectangles chosen before index
+	 * best --> Contiguous combinations covering the largest area, no less than best.area */
+	static void combinationUtil(Subsets subsets, int start, int index, long area, BestCombos best) {
 		
 		// Current combination is ready to be returned. 
+		int maxSize = subsets.chosen.length;
 		if (index == maxSize) {
-			List<Geometry> newCombo = new ArrayList<Geometry>();
-			for (int i = 0; i < maxSize; i++)
-				newCombo.add(data[i]);
-			
-			if (!containment(allCombos, newCombo) && contiguity(newCombo) && maxArea(newCombo, area))
-				allCombos.add(newCombo);
+			if (!subsets.contiguous())
+				return;
+			if (best.area < area) {
+				best.area = area;
+				best.combos.clear();
+			}
+			best.combos.add(subsets.combo());
 			return;
 		}
 		
-		// Replace index with all possible elements. The condition 
-		// "end-i+1 >= maxSize-index" makes sure that including one element 
-		// at index will make a combination with remaining elements 
-		// at remaining positions. 
-		for (int i = start; i <= end && end-i+1 >= maxSize-index; i++) {
-			data[index] = combo.get(i);
-			combinationUtil(combo, data, i+1, end, index+1, maxSize, allCombos, area);
+		// Replace index with all possible elements that leave enough 
+		// elements for the remaining positions. 
+		int remaining = maxSize - index;
+		long[] sums = subsets.sums;
+		for (int i = start; i + remaining <= subsets.areas.length; i++) {
+			// Bound: the next 'remaining' rectangles are the largest ones left, so no 
+			// combination continuing from i can cover more, and from i+1 on even less
+			if (area + sums[i + remaining] - sums[i] < best.area)
+				break;
+			subsets.chosen[index] = i;
+			combinationUtil(subsets, i+1, index+1, area + subsets.areas[i], best);
 		}
 	}
 	
-	/* Find all combinations of size 'desiredSize' 
-	 * containing a rectangle covering area 'area' 
-	 * from List<Geometry> combo of size 'size' */
-	static List<List<Geometry>> getCombinations(List<Geometry> combo, int size, int desiredSize, int area) {
-		List<List<Geometry>> allCombos = new ArrayList<List<Geometry>>();
-		
-		// A temporary array to store all combinations one by one 
-		Geometry data[] = new Geometry[desiredSize]; 
-
-		// Get all combinations using temporary array 'data[]'
-		combinationUtil(combo, data, 0, size-1, 0, desiredSize, allCombos, area); 
-		
-		return allCombos;
+	/* Find the contiguous combinations of 'desiredSize' rectangles of combo, 
+	 * sorted by decreasing area, that cover the largest area, if it is no less 
+	 * than minArea. Branch and bound: combinations that cannot cover the 
+	 * largest area found so far are never completed. */
+	static BestCombos getCombinations(List<Rect> combo, int desiredSize, long minArea) {
+		BestCombos best = new BestCombos(minArea);
+		combinationUtil(new Subsets(combo, desiredSize), 0, 0, 0, best); 
+		return best;
 	}
 	
 	// TO FIX: return origTiles (or part of them) if no combinations can be made!
 	/* Input: list of contiguous rectangles. 
 	 * Output: rectangle combinations that consist of the minimal possible 
 	 * rectangles with the maximal size, derived from the input rectangles. */
-	static List<List<Geometry>> generateRectangles (List<Geometry> origTiles, int desiredNumOfTiles, String shapeId) {
-		List<List<Geometry>> largestTileCombos = new ArrayList<List<Geometry>>();
-		List<List<Geometry>> newRoundCombos = new ArrayList<List<Geometry>>();
-		List<List<Geometry>> allCombos = new ArrayList<List<Geometry>>();
+	static List<List<Rect>> generateRectangles (List<Rect> origTiles, int desiredNumOfTiles, String shapeId) {
+		return generateRectangles(origTiles, desiredNumOfTiles, shapeId, Budget.UNLIMITED);
+	}
+	
+	/* Same as generateRectangles, but once budget is exhausted return the combinations 
+	 * with the fewest rectangles found so far, in the rounds completed or the one 
+	 * interrupted, or the original tiles if none has fewer. */
+	static List<List<Rect>> generateRectangles (List<Rect> origTiles, int desiredNumOfTiles, String shapeId, Budget budget) {
+		ComboSet largestTileCombos = new ComboSet();
+		ComboSet newRoundCombos = new ComboSet();
+		List<List<Rect>> allCombos = new ArrayList<List<Rect>>();
 				
 //		int desiredNumOfTiles = 2;
 		int prevMaxNumOfTiles, curNumOfTiles, minNumOfTiles, maxNumOfTiles;
 		curNumOfTiles = minNumOfTiles = maxNumOfTiles = origTiles.size();	
 		
 		newRoundCombos.add(origTiles);
+		// Best so far if the budget runs out in the first round
+		largestTileCombos.add(origTiles);
 		
 		// Create more combinations until the input is the same as the output,
 		// no more combinations are added to the list.
 		do {
 			
 			// Compute all combinations derived from uniting newRoundCombos
-			for (List<Geometry> combo : newRoundCombos)
-				allCombos.addAll(combineTiles(combo));
+			long roundStart = Metrics.start();
+			for (List<Rect> combo : newRoundCombos.list()) {
+				if (budget.exhausted())
+					break;
+				allCombos.addAll(combineTiles(combo, budget));
+			}
+			Metrics.stop(Metrics.Histogram.COMBINE_ROUND, roundStart);
+			Metrics.record(Metrics.Histogram.ROUND_COMBINATIONS, allCombos.size());
+			Metrics.count(Metrics.Counter.COMBINE_ROUNDS, 1);
+			
+			// Out of budget: add the fewest rectangles of this round to those of the previous ones
+			if (budget.exhausted()) {
+				for (List<Rect> combo : allCombos) {
+					if (minNumOfTiles > combo.size()) {
+						minNumOfTiles = combo.size();
+						largestTileCombos.clear();
+						largestTileCombos.add(combo);
+					}
+					else if (minNumOfTiles == combo.size()) {
+						largestTileCombos.add(combo);
+					}
+				}
+				break;
+			}
 			
 			// FIXED??? 
 			if (allCombos.size() == 1) {
-				largestTileCombos = allCombos;
+				largestTileCombos.clear();
+				largestTileCombos.addAll(allCombos);
 				break;
 			}
 			
@@ -349,14 +372,13 @@ class Tiling {
 			// Keep all combinations with fewer rectangles than in the previous loop 
 			// in List newRoundCombos.
 			// Keep all combinations with the fewest rectangles in List largestTiles.
-			for (List<Geometry> combo: allCombos) {
+			for (List<Rect> combo: allCombos) {
 				curNumOfTiles = combo.size();
 				if (prevMaxNumOfTiles <= curNumOfTiles) {
 	    			continue;
 	    		}
 				
-				if (!containment(newRoundCombos, combo))
-					newRoundCombos.add(combo);
+				newRoundCombos.add(combo);
 				
 				if (maxNumOfTiles < curNumOfTiles) {
 					maxNumOfTiles = curNumOfTiles;
@@ -367,7 +389,7 @@ class Tiling {
 	    			largestTileCombos.clear();
 	    			largestTileCombos.add(combo);
 	    		}
-				else if (minNumOfTiles == curNumOfTiles && !containment(largestTileCombos, combo)) {
+				else if (minNumOfTiles == curNumOfTiles) {
 	    			largestTileCombos.add(combo);
 	    		}
 	    	}
@@ -378,176 +400,345 @@ class Tiling {
 			allCombos.clear();
 			
 		} while (prevMaxNumOfTiles > maxNumOfTiles);
-					
+		
+		return largestTiles(largestTileCombos.list(), minNumOfTiles, desiredNumOfTiles, shapeId);
+	}
+	
+	/* Input: the combinations with the fewest (minNumOfTiles) rectangles.
+	 * Output: the input combinations, or the combinations of the desiredNumOfTiles 
+	 * largest rectangles if desiredNumOfTiles is less than minNumOfTiles. */
+	static List<List<Rect>> largestTiles(List<List<Rect>> largestTileCombos, int minNumOfTiles, int desiredNumOfTiles, String shapeId) {
 		// Print all the largest tiles of each combination
 		// Or find and print the desiredNumOfTiles largest ones 
-		if (desiredNumOfTiles >= minNumOfTiles || desiredNumOfTiles == -1) { 
+		if (verbose) {
 			System.out.println("\nShape " + shapeId + " has " + largestTileCombos.size() + " combinations with " + minNumOfTiles + " tiles:");
-	    	for (List<Geometry> combo: largestTileCombos) {
+	    	for (List<Rect> combo: largestTileCombos) {
 	    		System.out.println(combo.toString());
 	    	}
-	    	
+		}
+		if (desiredNumOfTiles >= minNumOfTiles || desiredNumOfTiles == -1) { 
 	    	return largestTileCombos;
 		}
 		else {
-			System.out.println("\nShape " + shapeId + " has " + largestTileCombos.size() + " combinations with " + minNumOfTiles + " tiles:");
-			for (List<Geometry> combo: largestTileCombos) {
-	    		System.out.println(combo.toString());
-	    	}
 			
-			int curArea, maxArea = 0;
-			for (List<Geometry> combo: largestTileCombos) {
+			// Keep the combinations of the desiredNumOfTiles rectangles 
+			// covering the largest area among all combinations
+			ComboSet desiredCombos = new ComboSet();
+			long maxArea = 0;
+			for (List<Rect> combo: largestTileCombos) {
 				Collections.sort(combo, new SortByArea());
-				curArea = 0;
-				for (int i = 0; i < desiredNumOfTiles; i++) 
-					curArea += combo.get(i).getArea();
-									
-				if (maxArea < curArea) {
-					maxArea = curArea;
-					allCombos.clear();
-					allCombos.addAll(getCombinations(combo, combo.size(), desiredNumOfTiles, maxArea)); 
-	    		}
-				else if (maxArea == curArea) {
-					newRoundCombos = getCombinations(combo, combo.size(), desiredNumOfTiles, maxArea);
-					for (List<Geometry> newCombo: newRoundCombos)
-						if (!containment(allCombos, newCombo))
-							allCombos.add(newCombo);
-	    		}
+				BestCombos best = getCombinations(combo, desiredNumOfTiles, maxArea);
+				if (best.combos.isEmpty())
+					continue;
+				
+				if (maxArea < best.area) {
+					maxArea = best.area;
+					desiredCombos.clear();
+				}
+				desiredCombos.addAll(best.combos);
 	    	}
 			
-			System.out.println("\nShape " + shapeId + " has " + allCombos.size() + " combinations with " + desiredNumOfTiles + " tiles (maximal coverage of " + maxArea + " cells) :");
-			for (List<Geometry> combo: allCombos)
-	    		System.out.println(combo.toString());
+			if (verbose) {
+				System.out.println("\nShape " + shapeId + " has " + desiredCombos.size() + " combinations with " + desiredNumOfTiles + " tiles (maximal coverage of " + maxArea + " cells) :");
+				for (List<Rect> combo: desiredCombos.list())
+		    		System.out.println(combo.toString());
+			}
 			
-			return allCombos;
+			return desiredCombos.list();
 		}
-		
 	}
 	
-	public static void main(String[] args) {
-		// Read all original cells from different shapes from csv file
-		List<Cell> cells = new ArrayList<Cell>();
+	/* Map the cells of shape shapeId to its grid, generate the rectangle
+	 * combinations, or take them from cache, rank them by ComboScore and return 
+	 * the rectangles of each combination, best first and only the top n of the
+	 * options if set, transformed by frame unless it is null.
+	 * Cells that are not contiguous, e.g. of a multipolygon or around a hole 
+	 * that cuts the shape through, are split into their contiguous parts, which
+	 * are tiled and ranked on their own. Combination k of the shape is then
+	 * combination k of every part, or its last one for the parts with fewer,
+	 * so combination 0 is the best of every part. */
+	static List<Cell> tileShape(String shapeId, List<Envelope> origCells, AffineTransformation frame, Options options, 
+			TilingCache cache) {
+		long start = Metrics.start();
+		List<Cell> newCells = new ArrayList<Cell>();
+		Grid grid = Grid.fromCells(origCells);
+		List<Rect> origTiles = new ArrayList<Rect>();
+		for (Envelope cell : origCells)
+			origTiles.add(grid.toRect(cell));
 		
-		String inputFile = args[0];
-		String outputFile = args[1];
-		System.out.println("Input file: " + inputFile);
-		System.out.println("Output file: " + outputFile);
-
-		CSVParser csvParser = new CSVParserBuilder().withSeparator('|').build(); // custom separator
-		try(CSVReader reader = new CSVReaderBuilder(
-				new FileReader(inputFile))
-				.withCSVParser(csvParser)   // custom CSV parser
-				.withSkipLines(2)           // skip the first two lines, header info
-				.build()){
-			
-			String[] lineInArray;
-			while ((lineInArray = reader.readNext()) != null) {
-				if (Arrays.toString(lineInArray).contains("rows"))
-					break;
-				
-				cells.add(new Cell(lineInArray[0], lineInArray[1], lineInArray[2]));
-			}
-		} catch (FileNotFoundException e1) {
-			// TODO Auto-generated catch block
-			e1.printStackTrace();
-		} catch (IOException e1) {
-			// TODO Auto-generated catch block
-			e1.printStackTrace();
-		} catch (CsvValidationException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		if (verbose)
+			System.out.println("\nShape " + shapeId + " with " + origTiles.size() + " tiles:\n" + origTiles.toString());
+		long contiguityStart = Metrics.start();
+		List<List<Rect>> parts;
+		if (contiguity(origTiles)) {
+			// The merge rounds take the tiles in breadth-first order
+			parts = Collections.singletonList(breadthFirst(origTiles));
 		}
+		else {
+			parts = components(origTiles);
+			Metrics.count(Metrics.Counter.SPLIT_SHAPES, 1);
+			splitShapes.incrementAndGet();
+			if (verbose)
+				System.out.println("\nShape " + shapeId + " with " + origTiles.size() + " tiles, is not contiguous, tiling its " 
+						+ parts.size() + " parts separately");
+		}
+		Metrics.stop(Metrics.Histogram.CONTIGUITY, contiguityStart);
 		
+		Budget budget = options.budget();
+		boolean cached = true;
+		int numOfCombos = 0, numOfTiles = 0;
+		List<List<ComboScore>> rankedParts = new ArrayList<List<ComboScore>>(parts.size());
+		for (List<Rect> part : parts) {
+			List<List<Rect>> allCombos = cache.get(options.solver, options.desiredTiles, part);
+			if (allCombos == null) {
+				cached = false;
+				long solveStart = Metrics.start();
+				allCombos = options.solver.solve(part, options.desiredTiles, shapeId, budget);
+				Metrics.stop(Metrics.Histogram.SOLVE, solveStart);
+				// Not cached out of budget, so that the pattern is solved again with a budget left
+				if (budget.exceeded() == null)
+					cache.put(options.solver, options.desiredTiles, part, allCombos);
+			}
+			numOfCombos = Math.max(numOfCombos, allCombos.size());
+			numOfTiles += allCombos.isEmpty() ? 0 : allCombos.get(0).size();
+			List<ComboScore> ranked = ComboScore.rank(allCombos, part, grid, options.topN);
+			if (verbose) {
+				System.out.println("Ranked combinations:");
+				for (ComboScore score : ranked)
+					System.out.println(score);
+			}
+			if (!ranked.isEmpty())
+				rankedParts.add(ranked);
+		}
 		
-		// PRINT FOR TESTING
-//		for (Cell cell : cells)
-//			System.out.println(cell.toString());
-		
-		// Call generateRectangles for each shape separately
-		List<Geometry> origTiles = new ArrayList<Geometry>();
-		List<List<Geometry>> allCombos;
-		List<Cell> newCells = new ArrayList<Cell>();
-		String shapeId = "";
-		Integer comboId = 0;
+		boolean optimal = budget.exceeded() == null;
+		if (!optimal) {
+			Metrics.count(Metrics.Counter.BUDGET_EXCEEDED, 1);
+			budgetShapes.incrementAndGet();
+			if (verbose)
+				System.out.println("\nShape " + shapeId + " with " + origTiles.size() + " tiles hit its " + budget.exceeded() 
+						+ " after " + budget.combos() + " combinations, keeping " + numOfCombos 
+						+ " combinations with " + numOfTiles + " tiles");
+		}
+		else if (cached) {
+			Metrics.count(Metrics.Counter.CACHED_SHAPES, 1);
+		}
 		
-		for (Cell cell : cells) {
-			if (shapeId.isEmpty() || shapeId.equals(cell.getShapeId())) {
-				shapeId = cell.getShapeId();
-				origTiles.add(cell.getGeom());
-				continue;
-			}
-						
-			System.out.println("\nShape " + shapeId + " with " + origTiles.size() + " tiles:\n" + origTiles.toString());
-			if (contiguity(origTiles)) {
-//				System.out.println("Contiguous original tiles");
-				allCombos = generateRectangles(origTiles, -1, shapeId);
-				
-				for (List<Geometry> combo : allCombos) {
-					for (Geometry geom : combo) {
-						newCells.add(new Cell(shapeId, comboId.toString(), geom));
-					}
-					comboId++;
+		int rankedCombos = 0;
+		for (List<ComboScore> ranked : rankedParts)
+			rankedCombos = Math.max(rankedCombos, ranked.size());
+		for (Integer comboId = 0; comboId < rankedCombos; comboId++) {
+			for (List<ComboScore> ranked : rankedParts) {
+				for (Rect rect : ranked.get(Math.min(comboId, ranked.size() - 1)).combo) {
+					Geometry geom = grid.toGeometry(rect);
+					if (frame != null)
+						geom = frame.transform(geom);
+					newCells.add(new Cell(shapeId, comboId.toString(), geom, optimal));
 				}
-				comboId = 0;
 			}
-			else {
-				System.out.println("\nShape " + shapeId + " with " + origTiles.size() + " tiles, is not contiguous");
+		}
+		if (start != 0)
+			Metrics.shape(shapeId, origCells.size(), System.nanoTime() - start);
+		return newCells;
+	}
+	
+	/* Split tiles into their contiguous parts, each in breadth-first order 
+	 * from its first tile in tiles, in the order of those first tiles. */
+	static List<List<Rect>> components(List<Rect> tiles) {
+		List<List<Rect>> components = new ArrayList<List<Rect>>();
+		List<Rect> restTiles = tiles;
+		while (!restTiles.isEmpty()) {
+			List<Rect> component = breadthFirst(restTiles);
+			components.add(component);
+			Set<Rect> reached = new HashSet<Rect>(component);
+			List<Rect> unreached = new ArrayList<Rect>(restTiles.size() - component.size());
+			for (Rect rect : restTiles)
+				if (!reached.contains(rect))
+					unreached.add(rect);
+			restTiles = unreached;
+		}
+		return components;
+	}
+	
+	/* Tile the shapes of source one at a time and write their rectangles 
+	 * to sink, running up to 'threads' shapes in parallel. At most twice as many 
+	 * shapes as threads are in memory at any time, and the rectangles are 
+	 * written in the order of the shapes in source. Shapes unchanged since the
+	 * previous run of incremental are copied from its output instead. 
+	 * The shapes split into parts or out of budget are counted in a summary 
+	 * at the end, and listed one by one only with --verbose. */
+	static void tileShapes(ShapeSource source, ShapeSink sink, final Options options, final TilingCache cache, 
+			Incremental incremental) throws IOException {
+		splitShapes.set(0);
+		budgetShapes.set(0);
+		tileAll(source, sink, options, cache, incremental);
+		if (splitShapes.get() > 0)
+			System.out.println("\nTiled the parts of " + splitShapes.get() + " shapes that are not contiguous separately");
+		if (budgetShapes.get() > 0)
+			System.out.println("\n" + budgetShapes.get() + " shapes hit their budget and kept the best combinations found until then" 
+					+ (verbose ? "" : ", --verbose lists them"));
+	}
+	
+	private static void tileAll(ShapeSource source, ShapeSink sink, final Options options, final TilingCache cache, 
+			Incremental incremental) throws IOException {
+		int threads = options.threads;
+		Shape shape;
+		
+		if (threads <= 1) {
+			while ((shape = next(source)) != null) {
+				List<Cell> newCells = reuse(shape, incremental);
+				if (newCells == null)
+					newCells = tileShape(shape.id, shape.cells, shape.frame, options, cache);
+				write(newCells, sink, incremental);
 			}
-			
-			origTiles.clear();
-			origTiles.add(cell.getGeom());
-			shapeId = cell.getShapeId();
+			return;
 		}
 		
-		System.out.println("\nShape " + shapeId + " with " + origTiles.size() + " tiles:\n" + origTiles.toString());
-		if (contiguity(origTiles)) {
-//			System.out.println("Contiguous original tiles");
-			allCombos = generateRectangles(origTiles, -1, shapeId);
-			for (List<Geometry> combo : allCombos) {
-				for (Geometry geom : combo) {
-					newCells.add(new Cell(shapeId, comboId.toString(), geom));
-				}
-				comboId++;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			Deque<Future<List<Cell>>> results = new ArrayDeque<Future<List<Cell>>>();
+			while ((shape = next(source)) != null) {
+				final Shape nextShape = shape;
+				final List<Cell> reused = reuse(shape, incremental);
+				results.add(executor.submit(new Callable<List<Cell>>() {
+					@Override
+					public List<Cell> call() {
+						if (reused != null)
+							return reused;
+						return tileShape(nextShape.id, nextShape.cells, nextShape.frame, options, cache);
+					}
+				}));
+				if (results.size() >= 2 * threads)
+					write(results.poll().get(), sink, incremental);
 			}
-			comboId = 0;
+			while (!results.isEmpty())
+				write(results.poll().get(), sink, incremental);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while tiling shapes", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Tiling failed", e.getCause());
+		} finally {
+			executor.shutdownNow();
 		}
-		else {
-			System.out.println("\nShape " + shapeId + " with " + origTiles.size() + " tiles, is not contiguous");
+	}
+	
+	private static Shape next(ShapeSource source) throws IOException {
+		long start = Metrics.start();
+		Shape shape = source.next();
+		if (shape != null)
+			Metrics.stop(Metrics.Histogram.PARSE, start);
+		return shape;
+	}
+	
+	private static List<Cell> reuse(Shape shape, Incremental incremental) throws IOException {
+		List<Cell> reused = incremental.reuse(shape);
+		if (reused != null)
+			Metrics.count(Metrics.Counter.REUSED_SHAPES, 1);
+		return reused;
+	}
+	
+	private static void write(List<Cell> newCells, ShapeSink sink, Incremental incremental) throws IOException {
+		long start = Metrics.start();
+		sink.write(newCells);
+		Metrics.stop(Metrics.Histogram.WRITE, start);
+		Metrics.count(Metrics.Counter.ROWS, newCells.size());
+		incremental.written(newCells);
+	}
+	
+	/* Return the shapes of source, or with --polygons the shapes of the 
+	 * inner cells of its polygons, only those of the shard of the options if any. */
+	static <S extends ShapeSource & PolygonSource> ShapeSource shapes(S source, Options options) {
+		if (options.shard != null)
+			return grid(options.shard.filter(source), options);
+		return grid(source, options);
+	}
+	
+	private static <S extends ShapeSource & PolygonSource> ShapeSource grid(S source, Options options) {
+		if (!options.polygons)
+			return source;
+		return new GridGenerator(source, options.lowerLimit, options.upperLimit, options.resolution, options.refine, 
+				options.oriented);
+	}
+	
+	/* Sink of the output file in the format of the options. */
+	static ShapeSink fileSink(Options options) throws IOException {
+		if (options.format.equals("rows"))
+			return new BinarySink(options.outputFile, BinarySink.ROWS);
+		if (options.format.equals("columns"))
+			return new BinarySink(options.outputFile, BinarySink.COLUMNS);
+		return new CsvSink(options.outputFile, options.budgeted());
+	}
+
+	public static void main(String[] args) {
+		Options options;
+		try {
+			options = Options.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(Options.USAGE);
+			System.exit(1);
+			return;
 		}
 		
-		// PRINT FOR TESTING
-//		System.out.println("\n");
-//		for (Cell cell : newCells)
-//			System.out.println(cell.toString());
+		String kind = options.jdbcUrl != null ? "table" : "file";
+		System.out.println("Input " + kind + ": " + options.inputFile);
+		System.out.println("Output " + kind + ": " + options.outputFile);
+		if (options.shard != null)
+			System.out.println("Shard: " + options.shard);
 		
-		// Write the generated rectangles for each shape to a csv file 
-		List<String[]> csvData = createCsvDataSimple(newCells);
-
-        // default all fields are enclosed in double quotes
-        // default separator is a comma
-        try (CSVWriter writer = new CSVWriter(new FileWriter(outputFile))) {
-            writer.writeAll(csvData);
-        } catch (IOException e) {
-			// TODO Auto-generated catch block
+		// Read the cells of one shape at a time from the csv file or table, call generateRectangles
+		// for each shape separately and write its rectangles to the output csv file or table
+		verbose = options.verbose;
+		Metrics.enabled = options.metricsFile != null || options.metricsPort > 0;
+		TilingCache cache = new TilingCache(options.cacheSize, options.cacheSymmetry);
+		boolean failed = false;
+		try (Incremental incremental = new Incremental(options.manifestFile, options.previousFile, options.settings())) {
+			if (options.metricsPort > 0)
+				Metrics.serve(options.metricsPort);
+			if (options.cacheFile != null) {
+				cache.load(options.cacheFile);
+				System.out.println("Loaded " + cache.size() + " cached shapes from " + options.cacheFile);
+			}
+			if (options.jdbcUrl != null) {
+				try (PostgisSource source = new PostgisSource(options.jdbcUrl, options.inputFile, options.polygons ? "geom" : "cell"); 
+						PostgisSink sink = new PostgisSink(options.jdbcUrl, options.outputFile, source.srid(), options.budgeted())) {
+					tileShapes(shapes(source, options), sink, options, cache, incremental);
+					sink.finish();
+				}
+			}
+			else if (options.mmap) {
+				MappedDumpSource dump = new MappedDumpSource(options.inputFile, options.parseWKT);
+				try (ParallelDumpSource source = new ParallelDumpSource(dump, options.threads, options.polygons); 
+						ShapeSink sink = fileSink(options)) {
+					tileShapes(shapes(source, options), sink, options, cache, incremental);
+					sink.finish();
+				}
+			}
+			else {
+				try (PsqlDumpSource source = new PsqlDumpSource(options.inputFile, options.parseWKT); 
+						ShapeSink sink = fileSink(options)) {
+					tileShapes(shapes(source, options), sink, options, cache, incremental);
+					sink.finish();
+				}
+			}
+			if (options.cacheFile != null)
+				cache.save(options.cacheFile);
+			incremental.save();
+			incremental.printSummary();
+			if (options.metricsFile != null)
+				Metrics.writeJson(options.metricsFile);
+		} catch (IOException e) {
 			e.printStackTrace();
+			failed = true;
+		} finally {
+			Metrics.stopServing();
 		}
-		
+		// Non-zero, so that a script or scheduler running the shards sees the failure
+		if (failed)
+			System.exit(1);
 	}
 
-
-	private static List<String[]> createCsvDataSimple(List<Cell> cells) {
-		List<String[]> list = new ArrayList<>();
-		list.add(new String[] {"shapeId", "comboId", "st_astext"});
-		for (Cell cell : cells) {
-//			Geometry geometry = ST_GeometryFromText(cell.getWKT(), 4326);
-			String[] str = {cell.getShapeId(), cell.getComboId(), cell.getWKT()};
-			list.add(str);
-		}
-		
-        return list;
-    }
-	
-	// Testing with some default geometries
 //	public static void main(String[] args) {
 //		List<Geometry> origTiles = new ArrayList<Geometry>();
 //		List<List<Geometry>> largestTileCombos = new ArrayList<List<Geometry>>();
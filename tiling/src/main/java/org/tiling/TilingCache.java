@@ -0,0 +1,254 @@
+package org.tiling;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/* Bounded cache of the rectangle combinations of shapes, evicting the least
+ * recently used shape when full.
+ * Shapes are mapped to their grid before tiling, so their rectangles are
+ * already independent of the position and size of the shape. A shape is
+ * keyed by its rectangles, and optionally by the smallest of the patterns of
+ * its 8 rotations and reflections, in which case the cached combinations are
+ * stored in the frame of that pattern and turned back for every shape.
+ * The cache is safe to share between the threads tiling the shapes. */
+final class TilingCache {
+
+	private static final int MAGIC = 0x54434831; // "TCH1"
+
+	private final int capacity;
+	private final boolean symmetry;
+	private final LinkedHashMap<Key, long[][]> entries;
+
+	TilingCache(final int capacity, boolean symmetry) {
+		this.capacity = capacity;
+		this.symmetry = symmetry;
+		this.entries = new LinkedHashMap<Key, long[][]>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, long[][]> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	boolean enabled() {
+		return capacity > 0;
+	}
+
+	/* Return the rectangle combinations of origTiles computed by solver
+	 * for desiredNumOfTiles, or null if they are not cached. */
+	List<List<Rect>> get(Solver solver, int desiredNumOfTiles, List<Rect> origTiles) {
+		if (!enabled())
+			return null;
+
+		Frame frame = new Frame(origTiles, symmetry);
+		long[][] combos;
+		synchronized (this) {
+			combos = entries.get(new Key(solver, desiredNumOfTiles, frame.pattern));
+		}
+		if (combos == null)
+			return null;
+
+		List<List<Rect>> allCombos = new ArrayList<List<Rect>>(combos.length);
+		for (long[] keys : combos) {
+			List<Rect> combo = new ArrayList<Rect>(keys.length);
+			for (long key : keys)
+				combo.add(frame.fromPattern(Rect.fromKey(key)));
+			allCombos.add(combo);
+		}
+		return allCombos;
+	}
+
+	/* Cache the rectangle combinations allCombos of origTiles computed by
+	 * solver for desiredNumOfTiles. */
+	void put(Solver solver, int desiredNumOfTiles, List<Rect> origTiles, List<List<Rect>> allCombos) {
+		if (!enabled())
+			return;
+
+		Frame frame = new Frame(origTiles, symmetry);
+		long[][] combos = new long[allCombos.size()][];
+		for (int i = 0; i < combos.length; i++) {
+			List<Rect> combo = allCombos.get(i);
+			combos[i] = new long[combo.size()];
+			for (int j = 0; j < combos[i].length; j++)
+				combos[i][j] = frame.toPattern(combo.get(j)).key();
+		}
+		synchronized (this) {
+			entries.put(new Key(solver, desiredNumOfTiles, frame.pattern), combos);
+		}
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	/* Load the entries saved to file by save(). A missing file leaves the cache
+	 * empty, as does a file saved with a different symmetry setting, whose
+	 * patterns are not comparable. */
+	synchronized void load(String file) throws IOException {
+		if (!enabled() || !new File(file).exists())
+			return;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC)
+				throw new IOException("Not a tiling cache file: " + file);
+			if (in.readBoolean() != symmetry) {
+				System.out.println("Ignoring cache file " + file + " saved with a different symmetry setting");
+				return;
+			}
+			int count = in.readInt();
+			Solver[] solvers = Solver.values();
+			for (int e = 0; e < count; e++) {
+				Solver solver = solvers[in.readByte()];
+				int desiredNumOfTiles = in.readInt();
+				long[] pattern = readKeys(in);
+				long[][] combos = new long[in.readInt()][];
+				for (int i = 0; i < combos.length; i++)
+					combos[i] = readKeys(in);
+				entries.put(new Key(solver, desiredNumOfTiles, pattern), combos);
+			}
+		}
+	}
+
+	/* Save the entries to file, least recently used first. */
+	synchronized void save(String file) throws IOException {
+		if (!enabled())
+			return;
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeBoolean(symmetry);
+			out.writeInt(entries.size());
+			for (Map.Entry<Key, long[][]> entry : entries.entrySet()) {
+				Key key = entry.getKey();
+				out.writeByte(key.solver.ordinal());
+				out.writeInt(key.desiredNumOfTiles);
+				writeKeys(out, key.pattern);
+				out.writeInt(entry.getValue().length);
+				for (long[] combo : entry.getValue())
+					writeKeys(out, combo);
+			}
+		}
+	}
+
+	private static long[] readKeys(DataInputStream in) throws IOException {
+		long[] keys = new long[in.readInt()];
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = in.readLong();
+		return keys;
+	}
+
+	private static void writeKeys(DataOutputStream out, long[] keys) throws IOException {
+		out.writeInt(keys.length);
+		for (long key : keys)
+			out.writeLong(key);
+	}
+
+	/* Placement of a shape in the frame of its cache pattern: one of the
+	 * 8 symmetries of the width x height box of the shape, with
+	 * bit 0 --> mirror horizontally, bit 1 --> mirror vertically,
+	 * bit 2 --> swap the axes (applied first). */
+	static final class Frame {
+		private final int width;
+		private final int height;
+		private int symmetry;
+		private long[] pattern;
+
+		Frame(List<Rect> origTiles, boolean symmetric) {
+			int maxX = 0, maxY = 0;
+			for (Rect rect : origTiles) {
+				maxX = Math.max(maxX, rect.x1());
+				maxY = Math.max(maxY, rect.y1());
+			}
+			width = maxX;
+			height = maxY;
+
+			for (int s = 0; s < (symmetric ? 8 : 1); s++) {
+				long[] keys = new long[origTiles.size()];
+				for (int i = 0; i < keys.length; i++)
+					keys[i] = transform(origTiles.get(i), s, width, height).key();
+				Arrays.sort(keys);
+				if (pattern == null || compare(keys, pattern) < 0) {
+					pattern = keys;
+					symmetry = s;
+				}
+			}
+		}
+
+		Rect toPattern(Rect rect) {
+			return transform(rect, symmetry, width, height);
+		}
+
+		/* Inverse of toPattern. */
+		Rect fromPattern(Rect rect) {
+			if ((symmetry & 4) == 0)
+				return transform(rect, symmetry, width, height);
+			// Mirroring before swapping the axes mirrors the other axis
+			int inverse = 4 | (symmetry & 1) << 1 | (symmetry & 2) >> 1;
+			return transform(rect, inverse, height, width);
+		}
+
+		private static Rect transform(Rect rect, int symmetry, int width, int height) {
+			boolean swap = (symmetry & 4) != 0;
+			int x0 = swap ? rect.y0() : rect.x0(), y0 = swap ? rect.x0() : rect.y0();
+			int x1 = swap ? rect.y1() : rect.x1(), y1 = swap ? rect.x1() : rect.y1();
+			int w = swap ? height : width, h = swap ? width : height;
+			if ((symmetry & 1) != 0) {
+				int x = x0;
+				x0 = w - x1;
+				x1 = w - x;
+			}
+			if ((symmetry & 2) != 0) {
+				int y = y0;
+				y0 = h - y1;
+				y1 = h - y;
+			}
+			return Rect.of(x0, y0, x1, y1);
+		}
+
+		private static int compare(long[] a, long[] b) {
+			for (int i = 0; i < Math.min(a.length, b.length); i++)
+				if (a[i] != b[i])
+					return Long.compare(a[i], b[i]);
+			return Integer.compare(a.length, b.length);
+		}
+	}
+
+	static final class Key {
+		private final Solver solver;
+		private final int desiredNumOfTiles;
+		private final long[] pattern;
+		private final int hash;
+
+		Key(Solver solver, int desiredNumOfTiles, long[] pattern) {
+			this.solver = solver;
+			this.desiredNumOfTiles = desiredNumOfTiles;
+			this.pattern = pattern;
+			this.hash = 31 * (31 * solver.ordinal() + desiredNumOfTiles) + Arrays.hashCode(pattern);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return other.hash == hash && other.solver == solver && other.desiredNumOfTiles == desiredNumOfTiles
+					&& Arrays.equals(other.pattern, pattern);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}